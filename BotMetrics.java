@@ -0,0 +1,187 @@
+package DinkleBot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/*
+ * Per-frame timings and counters for DinkleBot, kept in a fixed-size ring buffer of the
+ * most recent frames and dumped as CSV or JSON (usually at game end).
+ *
+ * Everything is off by default. While disabled every hook is a single field check, no
+ * clock is read and nothing is recorded.
+ */
+public class BotMetrics {
+  // Columns of one frame record
+  public static final int CYCLE = 0, FRAME = 1;
+  public static final int BASES = 2, BARRACKS = 3, WORKERS = 4, LIGHTS = 5, HEAVIES = 6, RANGERS = 7;
+  public static final int TRANSLATE = 8, PATHFINDING = 9;
+  public static final int FIND_CLOSEST = 10, FIND_WITHIN = 11, COUNT_WITHIN = 12;
+  public static final int DEFERRED = 13, ALLOCATED = 14, ENGAGEMENTS = 15, INTENTS = 16, PLAN_AGE = 17;
+  private static final String[] COLUMNS = {
+    "cycle", "frameNanos",
+    "basesNanos", "barracksNanos", "workersNanos", "lightsNanos", "heaviesNanos", "rangersNanos",
+    "translateNanos", "pathfindingCalls",
+    "findClosest", "findUnitsWithin", "countUnitsWithin",
+    "deferred", "allocatedBytes", "engagements", "intentsReused", "planAge"
+  };
+
+  private boolean enabled;
+  private long[] ring = new long[0];
+  private int capacity, next, size;
+  private final long[] frame = new long[COLUMNS.length];
+  private long frameStart, passStart, allocationStart;
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final boolean allocationSupported = threads instanceof com.sun.management.ThreadMXBean
+      && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+
+  public void enable(int frames) {
+    capacity = frames;
+    ring = new long[frames * COLUMNS.length];
+    next = 0;
+    size = 0;
+    enabled = frames > 0;
+  }
+
+  public void disable() {
+    enabled = false;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  void startFrame(int cycle) {
+    if (!enabled)
+      return;
+    Arrays.fill(frame, 0);
+    frame[CYCLE] = cycle;
+    allocationStart = allocatedBytes();
+    frameStart = System.nanoTime();
+  }
+
+  void startPass() {
+    if (!enabled)
+      return;
+    passStart = System.nanoTime();
+  }
+
+  // Time since startPass is added to the column
+  void endPass(int column) {
+    if (!enabled)
+      return;
+    frame[column] += System.nanoTime() - passStart;
+  }
+
+  void count(int column) {
+    if (!enabled)
+      return;
+    frame[column]++;
+  }
+
+  void add(int column, long value) {
+    if (!enabled)
+      return;
+    frame[column] += value;
+  }
+
+  void endFrame(int deferred) {
+    if (!enabled)
+      return;
+    frame[FRAME] = System.nanoTime() - frameStart;
+    frame[DEFERRED] = deferred;
+    frame[ALLOCATED] = allocationSupported ? allocatedBytes() - allocationStart : -1;
+    System.arraycopy(frame, 0, ring, next * COLUMNS.length, COLUMNS.length);
+    next = (next + 1) % capacity;
+    size = Math.min(size + 1, capacity);
+  }
+
+  // Number of frames currently held, oldest first for frame(i, column)
+  public int frames() {
+    return size;
+  }
+
+  public long frame(int index, int column) {
+    int slot = (next - size + index + capacity) % capacity;
+    return ring[slot * COLUMNS.length + column];
+  }
+
+  public void writeCsv(Writer writer) throws IOException {
+    writer.write(String.join(",", COLUMNS));
+    writer.write('\n');
+    for (int i = 0; i < size; i++) {
+      for (int c = 0; c < COLUMNS.length; c++) {
+        if (c > 0)
+          writer.write(',');
+        writer.write(Long.toString(frame(i, c)));
+      }
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  public void writeJson(Writer writer) throws IOException {
+    writer.write("[");
+    for (int i = 0; i < size; i++) {
+      writer.write(i == 0 ? "\n  {" : ",\n  {");
+      for (int c = 0; c < COLUMNS.length; c++) {
+        if (c > 0)
+          writer.write(", ");
+        writer.write("\"" + COLUMNS[c] + "\": " + frame(i, c));
+      }
+      writer.write("}");
+    }
+    writer.write("\n]\n");
+    writer.flush();
+  }
+
+  private long allocatedBytes() {
+    if (!allocationSupported)
+      return 0;
+    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Wraps the bot's PathFinding so every search it runs is counted
+  PathFinding counting(PathFinding delegate) {
+    return new PathFinding() {
+      @Override
+      public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        count(PATHFINDING);
+        return delegate.pathExists(start, targetpos, gs, ru);
+      }
+
+      @Override
+      public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        count(PATHFINDING);
+        return delegate.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+      }
+
+      @Override
+      public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        count(PATHFINDING);
+        return delegate.findPath(start, targetpos, gs, ru);
+      }
+
+      @Override
+      public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        count(PATHFINDING);
+        return delegate.findPathToPositionInRange(start, targetpos, range, gs, ru);
+      }
+
+      @Override
+      public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        count(PATHFINDING);
+        return delegate.findPathToAdjacentPosition(start, targetpos, gs, ru);
+      }
+    };
+  }
+}
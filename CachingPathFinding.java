@@ -0,0 +1,256 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/*
+ * PathFinding that remembers the routes another PathFinding produced and replays them.
+ *
+ * The wrapped search only ever returns the next step, so routes are learned as units walk
+ * them: every step the delegate hands a unit is appended to that unit's route, and once the
+ * unit arrives the route is stored under its goal. From then on any unit standing on a
+ * stored route for the same goal just takes the next cell, which is what a harvester going
+ * back and forth between a resource and a base does on every trip after the first.
+ *
+ * A stored route is dropped only when one of its cells becomes blocked by a wall or a unit
+ * that can't move (a new barracks, for example). Units walking across a route only block it
+ * for that step: the delegate picks a detour and the route is kept.
+ */
+public class CachingPathFinding extends PathFinding {
+  private static final int MAX_GOALS = 256;
+
+  private final PathFinding delegate;
+
+  // Goal -> cell -> the stored route through that cell, least recently used goal first
+  private final LinkedHashMap<Long, Map<Integer, Route>> routes = new LinkedHashMap<>(16, 0.75f, true);
+  // Cell -> stored routes through it, to find what a newly blocked cell invalidates
+  private final Map<Integer, List<Route>> routesThrough = new HashMap<>();
+  // Unit ID -> route it is walking that hasn't reached its goal yet
+  private final Map<Long, Route> learning = new HashMap<>();
+
+  private final StaticObstacles obstacles = new StaticObstacles();
+  private int width, height;
+  private final ReservedCells reserved = new ReservedCells();
+  // IDs of the units on the board, to let go of the routes of units that died mid-walk
+  private final UnitIdSet onBoard = new UnitIdSet(128);
+
+  public CachingPathFinding(PathFinding delegate) {
+    this.delegate = delegate;
+  }
+
+  public PathFinding getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    return delegate.pathExists(start, targetpos, gs, ru);
+  }
+
+  @Override
+  public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    return delegate.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    long goal = goal(targetpos, 0, 0);
+    UnitAction step = replay(start, goal, gs, ru);
+    if (step != null)
+      return step;
+    return learn(start, goal, targetpos, 0, delegate.findPath(start, targetpos, gs, ru));
+  }
+
+  @Override
+  public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    long goal = goal(targetpos, range, 1);
+    UnitAction step = replay(start, goal, gs, ru);
+    if (step != null)
+      return step;
+    return learn(start, goal, targetpos, range, delegate.findPathToPositionInRange(start, targetpos, range, gs, ru));
+  }
+
+  @Override
+  public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    long goal = goal(targetpos, 1, 2);
+    UnitAction step = replay(start, goal, gs, ru);
+    if (step != null)
+      return step;
+    return learn(start, goal, targetpos, 1, delegate.findPathToAdjacentPosition(start, targetpos, gs, ru));
+  }
+
+  // The next cell of a stored route, if the unit stands on one and that cell is open right now
+  private UnitAction replay(Unit start, long goal, GameState gs, ResourceUsage ru) {
+    refreshObstacles(gs);
+    Map<Integer, Route> stored = routes.get(goal);
+    int from = start.getX() + start.getY() * width;
+    Route route = stored == null ? null : stored.get(from);
+    int next = route == null ? -1 : route.after(from);
+    if (next < 0)
+      return null;
+
+    int x = next % width;
+    int y = next / width;
+    reserved.load(ru, width * height);
+    if (!gs.free(x, y) || reserved.contains(next))
+      return null;
+    learning.remove(start.getID());
+    return new UnitAction(UnitAction.TYPE_MOVE, direction(from, next));
+  }
+
+  // Extend the unit's route with the delegate's answer, storing it once the unit has arrived
+  private UnitAction learn(Unit start, long goal, int targetpos, int range, UnitAction step) {
+    long id = start.getID();
+    int from = start.getX() + start.getY() * width;
+    Route route = learning.get(id);
+    if (route == null || route.goal != goal || route.last() != from) {
+      route = new Route(goal, from);
+      learning.put(id, route);
+    }
+
+    if (step == null) {
+      learning.remove(id);
+      if (route.length > 1 && inRange(from, targetpos, range))
+        store(route);
+    } else if (step.getType() == UnitAction.TYPE_MOVE) {
+      int next = from + UnitAction.DIRECTION_OFFX[step.getDirection()] + UnitAction.DIRECTION_OFFY[step.getDirection()] * width;
+      // A unit that doubles back (e.g. while detouring) doesn't produce a route worth replaying
+      if (route.indexOf(next) >= 0 || route.length >= width * height)
+        learning.remove(id);
+      else
+        route.add(next);
+    } else {
+      learning.remove(id);
+    }
+    return step;
+  }
+
+  private void store(Route route) {
+    Map<Integer, Route> stored = routes.get(route.goal);
+    if (stored == null) {
+      if (routes.size() >= MAX_GOALS) {
+        Iterator<Map<Integer, Route>> eldest = routes.values().iterator();
+        for (Route old : eldest.next().values())
+          old.dropped = true;
+        eldest.remove();
+      }
+      stored = new HashMap<>();
+      routes.put(route.goal, stored);
+    }
+    for (int i = 0; i < route.length; i++) {
+      int cell = route.cells[i];
+      stored.put(cell, route);
+      List<Route> through = routesThrough.computeIfAbsent(cell, c -> new ArrayList<>());
+      through.removeIf(r -> r.dropped);
+      through.add(route);
+    }
+  }
+
+  private void drop(Route route) {
+    if (route.dropped)
+      return;
+    route.dropped = true;
+    Map<Integer, Route> stored = routes.get(route.goal);
+    if (stored == null)
+      return;
+    for (int i = 0; i < route.length; i++)
+      stored.remove(route.cells[i], route);
+    if (stored.isEmpty())
+      routes.remove(route.goal);
+  }
+
+  // Once per frame, drop the stored routes through any cell that has become statically
+  // blocked, and the half-learned routes of units that are gone
+  private void refreshObstacles(GameState gs) {
+    if (!obstacles.refresh(gs))
+      return;
+    if (obstacles.resized()) {
+      // Cell numbers mean something else on a different map size
+      width = obstacles.width();
+      height = obstacles.height();
+      routes.clear();
+      routesThrough.clear();
+      learning.clear();
+    } else if (obstacles.changed()) {
+      for (int cell = 0; cell < width * height; cell++) {
+        if (!obstacles.blocked(cell) || obstacles.wasBlocked(cell))
+          continue;
+        List<Route> through = routesThrough.remove(cell);
+        if (through != null)
+          through.forEach(this::drop);
+      }
+    }
+
+    if (!learning.isEmpty()) {
+      List<Unit> units = gs.getPhysicalGameState().getUnits();
+      onBoard.clear();
+      for (int i = 0; i < units.size(); i++)
+        onBoard.add(units.get(i).getID());
+      learning.keySet().removeIf(id -> !onBoard.contains(id));
+    }
+  }
+
+  private boolean inRange(int cell, int targetpos, int range) {
+    int dx = cell % width - targetpos % width;
+    int dy = cell / width - targetpos / width;
+    return dx * dx + dy * dy <= range * range;
+  }
+
+  private int direction(int from, int to) {
+    for (int direction = 0; direction < 4; direction++)
+      if (from + UnitAction.DIRECTION_OFFX[direction] + UnitAction.DIRECTION_OFFY[direction] * width == to)
+        return direction;
+    return UnitAction.DIRECTION_NONE;
+  }
+
+  // Kind separates findPath, range and adjacency queries that share a target and range
+  private static long goal(int targetpos, int range, int kind) {
+    return ((long) targetpos << 32) | ((long) range << 2) | kind;
+  }
+
+  private static class Route {
+    final long goal;
+    int[] cells = new int[8];
+    int length;
+    boolean dropped;
+
+    Route(long goal, int start) {
+      this.goal = goal;
+      add(start);
+    }
+
+    void add(int cell) {
+      if (length == cells.length)
+        cells = Arrays.copyOf(cells, length * 2);
+      cells[length++] = cell;
+    }
+
+    int last() {
+      return cells[length - 1];
+    }
+
+    int indexOf(int cell) {
+      for (int i = 0; i < length; i++)
+        if (cells[i] == cell)
+          return i;
+      return -1;
+    }
+
+    // The cell after the given one, or -1 if it is the last cell (the unit has arrived)
+    int after(int cell) {
+      int i = indexOf(cell);
+      return i < 0 || i + 1 >= length ? -1 : cells[i + 1];
+    }
+  }
+}
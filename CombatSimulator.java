@@ -0,0 +1,167 @@
+package DinkleBot;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/*
+ * Plays a local skirmish forward a few hundred cycles to tell whether attacking beats holding.
+ *
+ * The skirmish is loaded into flat arrays (position, hit points and the unit type's damage,
+ * range and timings) and simulated twice from the same start: once with our units advancing
+ * on the closest enemy, once with them holding and only hitting what is already in range.
+ * Enemies always advance. Each unit acts when it is next ready: it attacks the closest enemy
+ * in range (the weakest one on ties) or steps toward the closest enemy. Collisions, terrain
+ * and production are ignored, which is what keeps a step this cheap.
+ *
+ * Every simulated action counts against a per-frame node budget; once it runs out the
+ * evaluation gives no answer and the caller keeps its old behaviour.
+ */
+class CombatSimulator {
+  static final int ATTACK = 1, HOLD = 0, UNKNOWN = -1;
+  static final int MAX_UNITS = 64;
+  private static final int HORIZON = 200;
+
+  // Starting state of the loaded skirmish
+  private final int[] startX = new int[MAX_UNITS];
+  private final int[] startY = new int[MAX_UNITS];
+  private final int[] startHp = new int[MAX_UNITS];
+  private final int[] maxHp = new int[MAX_UNITS];
+  private final int[] damage = new int[MAX_UNITS];
+  private final int[] range2 = new int[MAX_UNITS];
+  private final int[] moveTime = new int[MAX_UNITS];
+  private final int[] attackTime = new int[MAX_UNITS];
+  private final int[] cost = new int[MAX_UNITS];
+  private final boolean[] ours = new boolean[MAX_UNITS];
+  private final boolean[] mobile = new boolean[MAX_UNITS];
+  private int count, ownCount, enemyCount;
+  // State of the run in progress
+  private final int[] x = new int[MAX_UNITS];
+  private final int[] y = new int[MAX_UNITS];
+  private final int[] hp = new int[MAX_UNITS];
+  private final int[] ready = new int[MAX_UNITS];
+
+  private int nodesLeft;
+  private int evaluatedThisFrame;
+  private long evaluated, nanos;
+
+  void startFrame(int nodeBudget) {
+    nodesLeft = nodeBudget;
+    evaluatedThisFrame = 0;
+  }
+
+  void clear() {
+    count = 0;
+    ownCount = 0;
+    enemyCount = 0;
+  }
+
+  // Units that can't fight, and each side's units past half of MAX_UNITS, are left out
+  void add(Unit unit, boolean own) {
+    UnitType type = unit.getType();
+    if ((own ? ownCount : enemyCount) == MAX_UNITS / 2 || !type.canAttack)
+      return;
+    if (own)
+      ownCount++;
+    else
+      enemyCount++;
+    startX[count] = unit.getX();
+    startY[count] = unit.getY();
+    startHp[count] = unit.getHitPoints();
+    maxHp[count] = Math.max(1, type.hp);
+    damage[count] = (type.minDamage + type.maxDamage + 1) / 2;
+    range2[count] = type.attackRange * type.attackRange;
+    moveTime[count] = Math.max(1, type.moveTime);
+    attackTime[count] = Math.max(1, type.attackTime);
+    cost[count] = type.cost;
+    ours[count] = own;
+    mobile[count] = type.canMove;
+    count++;
+  }
+
+  /*
+   * HOLD if attacking leaves us behind and holding would do better, ATTACK otherwise, or
+   * UNKNOWN if the node budget ran out. Simulated enemies always come at us, so holding
+   * often scores as well as attacking against a weaker force; that isn't reason to wait.
+   */
+  int evaluate() {
+    long start = System.nanoTime();
+    long attack = run(true);
+    long hold = attack == Long.MIN_VALUE ? Long.MIN_VALUE : run(false);
+    nanos += System.nanoTime() - start;
+    if (hold == Long.MIN_VALUE)
+      return UNKNOWN;
+    evaluated++;
+    evaluatedThisFrame++;
+    return attack >= 0 || attack >= hold ? ATTACK : HOLD;
+  }
+
+  int evaluatedThisFrame() {
+    return evaluatedThisFrame;
+  }
+
+  double evaluatedPerSecond() {
+    return nanos == 0 ? 0 : evaluated * 1e9 / nanos;
+  }
+
+  // Our remaining value minus theirs, or Long.MIN_VALUE if the budget ran out
+  private long run(boolean advance) {
+    System.arraycopy(startX, 0, x, 0, count);
+    System.arraycopy(startY, 0, y, 0, count);
+    System.arraycopy(startHp, 0, hp, 0, count);
+    for (int i = 0; i < count; i++)
+      ready[i] = 0;
+
+    while (true) {
+      int unit = -1;
+      for (int i = 0; i < count; i++)
+        if (hp[i] > 0 && (unit < 0 || ready[i] < ready[unit]))
+          unit = i;
+      if (unit < 0 || ready[unit] > HORIZON)
+        break;
+      int target = closestEnemy(unit);
+      if (target < 0)
+        break;
+      if (nodesLeft-- <= 0)
+        return Long.MIN_VALUE;
+
+      int dx = x[target] - x[unit];
+      int dy = y[target] - y[unit];
+      if (dx * dx + dy * dy <= range2[unit]) {
+        hp[target] -= damage[unit];
+        ready[unit] += attackTime[unit];
+      } else if (!mobile[unit] || (ours[unit] && !advance)) {
+        ready[unit] += attackTime[unit];
+      } else {
+        if (Math.abs(dx) >= Math.abs(dy))
+          x[unit] += Integer.signum(dx);
+        else
+          y[unit] += Integer.signum(dy);
+        ready[unit] += moveTime[unit];
+      }
+    }
+
+    long value = 0;
+    for (int i = 0; i < count; i++)
+      if (hp[i] > 0)
+        value += (ours[i] ? 1 : -1) * (long) cost[i] * hp[i] * 100 / maxHp[i];
+    return value;
+  }
+
+  // The closest living enemy of the unit, the weakest one on ties
+  private int closestEnemy(int unit) {
+    int best = -1;
+    int bestDist = Integer.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      if (hp[i] <= 0 || ours[i] == ours[unit])
+        continue;
+      int dx = x[i] - x[unit];
+      int dy = y[i] - y[unit];
+      int dist = dx * dx + dy * dy;
+      if (dist < bestDist || (dist == bestDist && hp[i] < hp[best])) {
+        best = i;
+        bestDist = dist;
+      }
+    }
+    return best;
+  }
+}
@@ -1,9 +1,18 @@
 package DinkleBot;
 
+import java.io.FileWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import CustomUnitClasses.AbstractionLayerAI;
 import ai.abstraction.pathfinding.AStarPathFinding;
@@ -23,32 +32,396 @@ public class DinkleBot extends AbstractionLayerAI{
   private Player player;
   private GameState game;
   private PhysicalGameState board;
-  private List<Unit> units, _units;
+  List<Unit> units, _units;
 
   private UnitType WORKER, LIGHT, HEAVY, RANGED, BASE, BARRACKS;
-  private List<Unit> bases, barracks, workers, lights, heavies, rangers;
-  private List<Unit> _bases, _barracks, _workers, _lights, _heavies, _rangers;
-  private List<Unit> resources;
+  List<Unit> bases, barracks, workers, lights, heavies, rangers;
+  List<Unit> resources;
+  // Classification table indexed by UnitType.ID, each slot pointing at one of our lists above
+  private final List<List<Unit>> ownByType = new ArrayList<>();
+  // The enemy's counts by type, with lists only built for the types a role pass walks
+  private final EnemyViews enemyViews = new EnemyViews();
+
+  // Grid indices over the lists above, looked up by list identity and rebuilt in setActionState
+  // only when their list changed
+  private final Map<List<Unit>, SpatialIndex> spatialIndex = new IdentityHashMap<>();
+  private final List<List<Unit>> indexedLists = new ArrayList<>();
+  // Births, deaths and moves since the previous frame
+  private final UnitTracker tracker = new UnitTracker();
+  private int trackedPlayer = -1;
+  // This frame's units as flat arrays, for loops over a whole population
+  private final UnitSnapshot snapshot = new UnitSnapshot();
+  // Both sides' damage potential per cell, kept in step with the tracker
+  private final InfluenceMap influence = new InfluenceMap();
+  // Base regions and barracks sites of the current map
+  private final MapAnalysis analysis = new MapAnalysis();
+  // Last harvest, defender slot or attack target of each unit, repeated while it still holds
+  private final IntentCache intents = new IntentCache();
+
+  /*
+   * Strategy constants. They are parameters so they can be tuned (see ParameterTuner in
+   * bench), and the tuned values for each map size are loaded from presets.properties.
+   */
+  private static final Presets PRESETS = Presets.load();
+  private boolean usePresets = true;
+  // Most defenders per base, and how far from the base they stand
+  private int defendersPerBase = 5;
+  private int defenderRadius = 4;
+  // How close an enemy has to get to a base before its defenders engage
+  private int engagementRadius = 8;
+  // Harvesters wanted per resource, and how many the first workers go to before anything else
+  private int harvestersPerResource = 2;
+  private int initialHarvesters = 3;
+  // How close an enemy base has to be to contest a resource, as a fraction of the map's diagonal
+  private int contestRadiusDivisor = 4;
+  // A base outside every region counts the resources within this fraction of the diagonal
+  static final int HARVEST_RADIUS_DIVISOR = 2;
+
+  // Opt-in: simulate the skirmish around a target before lights or heavies commit to it
+  private static final int SIMULATION_NODES = 20000;
+  private static final int SKIRMISH_RADIUS = 6;
+  private final CombatSimulator simulator = new CombatSimulator();
+  private boolean combatSimulation;
+  // Target ID -> 1 to engage or 0 to hold, decided once per frame
+  private final UnitIdMap engagements = new UnitIdMap();
+
+  // Opt-in: harvester quotas and the production order come from a planner thread working on
+  // a copy of the units, a frame or more behind, instead of being worked out inline
+  private boolean backgroundPlanning;
+  private StrategyPlanner planner = new StrategyPlanner();
+  // Our types by the planner's kinds, and the plan this frame works from (null when inline)
+  private final UnitType[] plannerKinds = new UnitType[StrategyPlanner.KINDS];
+  private StrategyPlanner.Strategy strategy;
+
+  // microRTS' usual frame length. Only the role passes are held to it, to DECISION_SHARE of
+  // it; the pathfinding in translateActions isn't timed or cut short, so the rest of the frame
+  // is what it is expected to fit in, not a limit it keeps to
+  public static final int DEFAULT_TIME_BUDGET = 100;
+  private static final double DECISION_SHARE = 0.5;
+  private final FrameBudget budget = new FrameBudget();
+
+  private final BotMetrics metrics = new BotMetrics();
+  private boolean pathfindingCounted;
+  // The pathfinder we were built with, before any metrics wrapper
+  private final PathFinding pathFinding;
+  private String metricsOutput;
 
   @Override
   public PlayerAction getAction(int player, GameState game) {
+    metrics.startFrame(game.getTime());
+    budget.startFrame((long) (TIME_BUDGET * DECISION_SHARE * 1000000));
+    simulator.startFrame(SIMULATION_NODES);
+    engagements.clear();
     setActionState(player, game);
+    if (backgroundPlanning) {
+      PhysicalGameState board = game.getPhysicalGameState();
+      planner.submit(game.getTime(), player, board.getUnits(), plannerKinds, analysis.regions(), board.getWidth(),
+          analysis.diagonal() / HARVEST_RADIUS_DIVISOR);
+      strategy = planner.latest();
+      metrics.add(BotMetrics.PLAN_AGE, strategy.time < 0 ? 0 : game.getTime() - strategy.time);
+    }
+    assignTasks();
+    budget.endFrame();
+
+    metrics.startPass();
+    PlayerAction action = translateActions(player, game);
+    metrics.endPass(BotMetrics.TRANSLATE);
+    metrics.add(BotMetrics.ENGAGEMENTS, simulator.evaluatedThisFrame());
+    metrics.endFrame(budget.deferredThisFrame());
+    return action;
+  }
+
+  public boolean getUsePresets() {
+    return usePresets;
+  }
+
+  public void setUsePresets(boolean usePresets) {
+    this.usePresets = usePresets;
+  }
+
+  public int getDefendersPerBase() {
+    return defendersPerBase;
+  }
+
+  public void setDefendersPerBase(int defendersPerBase) {
+    this.defendersPerBase = defendersPerBase;
+  }
+
+  public int getDefenderRadius() {
+    return defenderRadius;
+  }
+
+  public void setDefenderRadius(int defenderRadius) {
+    this.defenderRadius = Math.max(1, defenderRadius);
+    formation.setRadius(this.defenderRadius);
+    intents.forgetAll(IntentCache.DEFEND);
+  }
+
+  public int getEngagementRadius() {
+    return engagementRadius;
+  }
+
+  public void setEngagementRadius(int engagementRadius) {
+    this.engagementRadius = engagementRadius;
+  }
+
+  public int getHarvestersPerResource() {
+    return harvestersPerResource;
+  }
+
+  public void setHarvestersPerResource(int harvestersPerResource) {
+    this.harvestersPerResource = harvestersPerResource;
+  }
+
+  public int getInitialHarvesters() {
+    return initialHarvesters;
+  }
+
+  public void setInitialHarvesters(int initialHarvesters) {
+    this.initialHarvesters = initialHarvesters;
+  }
+
+  public int getContestRadiusDivisor() {
+    return contestRadiusDivisor;
+  }
+
+  public void setContestRadiusDivisor(int contestRadiusDivisor) {
+    this.contestRadiusDivisor = Math.max(1, contestRadiusDivisor);
+  }
+
+  // Sets one of the integer strategy parameters by name, false if there is no such parameter
+  boolean setParameter(String name, int value) {
+    switch (name) {
+      case "DefendersPerBase":
+        setDefendersPerBase(value);
+        return true;
+      case "DefenderRadius":
+        setDefenderRadius(value);
+        return true;
+      case "EngagementRadius":
+        setEngagementRadius(value);
+        return true;
+      case "HarvestersPerResource":
+        setHarvestersPerResource(value);
+        return true;
+      case "InitialHarvesters":
+        setInitialHarvesters(value);
+        return true;
+      case "ContestRadiusDivisor":
+        setContestRadiusDivisor(value);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  public boolean getCombatSimulation() {
+    return combatSimulation;
+  }
+
+  public void setCombatSimulation(boolean combatSimulation) {
+    this.combatSimulation = combatSimulation;
+  }
+
+  public boolean getBackgroundPlanning() {
+    return backgroundPlanning;
+  }
+
+  public void setBackgroundPlanning(boolean backgroundPlanning) {
+    if (this.backgroundPlanning && !backgroundPlanning)
+      restartPlanner();
+    this.backgroundPlanning = backgroundPlanning;
+  }
+
+  // Ends the planner's thread; a planner doesn't start again once stopped, so the next game gets a new one
+  private void restartPlanner() {
+    planner.stop();
+    planner = new StrategyPlanner();
+    strategy = null;
+  }
+
+  // Whether this frame works from the planner's plan rather than the inline one
+  private boolean planned() {
+    return strategy != null && strategy.time >= 0;
+  }
+
+  // Resources a base's harvester quota is made of, from the plan when it knows the base
+  private int plannedResourcesNear(Unit base) {
+    int near = planned() ? strategy.resourcesNear(base.getID()) : -1;
+    return near >= 0 ? near : resourcesNear(base);
+  }
+
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  public void setParallelThreshold(int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  // Skirmishes simulated per second of simulation time, over the bot's lifetime
+  public double getEngagementsPerSecond() {
+    return simulator.evaluatedPerSecond();
+  }
+
+  // Whether to take the fight around the target; always yes with simulation off or out of nodes
+  private boolean shouldEngage(Unit target) {
+    if (!combatSimulation)
+      return true;
+    int decided = engagements.get(target.getID());
+    if (decided < 0) {
+      simulator.clear();
+      addSkirmish(units, target, true);
+      addSkirmish(_units, target, false);
+      decided = simulator.evaluate() == CombatSimulator.HOLD ? 0 : 1;
+      engagements.put(target.getID(), decided);
+    }
+    return decided == 1;
+  }
+
+  // One side's units near the target, straight from its grid into the simulator
+  private void addSkirmish(List<Unit> side, Unit target, boolean own) {
+    metrics.count(BotMetrics.FIND_WITHIN);
+    SpatialIndex index = spatialIndex.get(side);
+    int found = index.selectWithin(target, SKIRMISH_RADIUS);
+    for (int i = 0; i < found; i++)
+      simulator.add(index.selected(i), own);
+  }
+
+  // The idle units of a role pass that the budget admits: the ones that ran out of time last
+  // frame first, then everyone else in list order
+  private void forEachAdmitted(List<Unit> list, Consumer<Unit> task) {
+    if (budget.hasCarryOver())
+      for (int i = 0; i < list.size(); i++) {
+        Unit unit = list.get(i);
+        if (budget.wasDeferred(unit) && unit.isIdle(game) && budget.admit(unit))
+          task.accept(unit);
+      }
+    for (int i = 0; i < list.size(); i++) {
+      Unit unit = list.get(i);
+      if (unit.isIdle(game) && budget.admit(unit))
+        task.accept(unit);
+    }
+  }
+
+  /*
+   * Opt-in parallel decisions. A role pass with at least parallelThreshold units to plan
+   * first works out the part of each unit's decision that only reads this frame (the closest
+   * bases and enemies, the defenders near its base, the targets it would pick) for all of
+   * them at once on the common fork-join pool, each task with buffers of its own. The rest of
+   * the decision, which claims slots, joins roles and records the action, then runs over the
+   * units in list order just as in a sequential pass, so both modes give the same actions.
+   *
+   * In parallel mode a pass's units are admitted before any of them is planned, so the time
+   * budget only holds back the passes that start after the deadline. Lookups made ahead on
+   * the pool aren't counted in the metrics.
+   */
+  private int parallelThreshold;
+  // Buffers for the read-only part of a decision: one for the sequential passes, and one per
+  // task of a parallel pass
+  private final Evaluator evaluator = new Evaluator();
+  private Evaluator[] evaluators = new Evaluator[0];
+  private final List<Unit> admitted = new ArrayList<>();
+
+  private static class Evaluator {
+    private int[] within = new int[0];
+
+    // At least n long
+    int[] within(int n) {
+      if (within.length < n)
+        within = new int[Math.max(n, within.length * 2)];
+      return within;
+    }
+  }
+
+  // Whether a pass with this many units to plan evaluates them in parallel
+  private boolean inParallel(int count) {
+    return parallelThreshold > 0 && count >= parallelThreshold;
+  }
+
+  // Runs evaluate for 0 .. count - 1 on the common pool, a contiguous share per task; it must
+  // only read the frame and write what it works out to slot i of its own arrays
+  private void evaluateInParallel(int count, ObjIntConsumer<Evaluator> evaluate) {
+    int tasks = Math.max(1, Math.min(count, ForkJoinPool.getCommonPoolParallelism()));
+    if (evaluators.length < tasks) {
+      evaluators = Arrays.copyOf(evaluators, tasks);
+      for (int t = 0; t < tasks; t++)
+        if (evaluators[t] == null)
+          evaluators[t] = new Evaluator();
+    }
+    IntStream.range(0, tasks).parallel().forEach(t -> {
+      for (int i = count * t / tasks; i < count * (t + 1) / tasks; i++)
+        evaluate.accept(evaluators[t], i);
+    });
+  }
+
+  private void assignTasks() {
+    metrics.startPass();
     new Bases();
+    metrics.endPass(BotMetrics.BASES);
+    metrics.startPass();
     new Barracks();
+    metrics.endPass(BotMetrics.BARRACKS);
+    metrics.startPass();
     new Workers();
+    metrics.endPass(BotMetrics.WORKERS);
+    metrics.startPass();
     new Lights();
+    metrics.endPass(BotMetrics.LIGHTS);
+    metrics.startPass();
     new Heavies();
+    metrics.endPass(BotMetrics.HEAVIES);
+    metrics.startPass();
     new Rangers();
+    metrics.endPass(BotMetrics.RANGERS);
+  }
+
+  // Records the last `frames` frames; pathfinding calls are counted from here on
+  public BotMetrics enableMetrics(int frames) {
+    if (!pathfindingCounted) {
+      pf = metrics.counting(pf);
+      pathfindingCounted = true;
+    }
+    metrics.enable(frames);
+    return metrics;
+  }
+
+  public BotMetrics getMetrics() {
+    return metrics;
+  }
+
+  // File the recorded frames are written to when the game ends, as JSON if it ends in .json
+  // and CSV otherwise
+  public void setMetricsOutput(String file) {
+    metricsOutput = file;
+  }
+
+  @Override
+  public void gameOver(int winner) throws Exception {
+    super.gameOver(winner);
+    restartPlanner();
+    if (!metrics.isEnabled() || metricsOutput == null)
+      return;
+    try (Writer writer = new FileWriter(metricsOutput)) {
+      if (metricsOutput.endsWith(".json"))
+        metrics.writeJson(writer);
+      else
+        metrics.writeCsv(writer);
+    }
+  }
 
-    return translateActions(player, game);
+  // Idle units that didn't fit in the frame budget, in total and in the last frame
+  public long getDeferredAssignments() {
+    return budget.deferredTotal();
+  }
+
+  public int getDeferredLastFrame() {
+    return budget.deferredThisFrame();
   }
 
   private class Bases {
     public Bases() {
-      bases.forEach(base -> {
-      if (base.isIdle(game))
-        assignTask(base);
-      });
+      forEachAdmitted(bases, this::assignTask);
     }
 
     private void assignTask(Unit base) {
@@ -65,7 +438,7 @@ public class DinkleBot extends AbstractionLayerAI{
        * Decide if we need workers to be trained as harvesters
        * 1. The number of harvesters is less than twice the number of resource nodes on the half of the board closest to our base
        */
-      boolean needHarvesters = harvesters.size() < 2*findUnitsWithin(resources, base, (int) Math.sqrt(board.getHeight()*board.getHeight() + board.getWidth()*board.getWidth())/2).size() && barracks.size() > 0;
+      boolean needHarvesters = harvesters.size() < harvestersPerResource*plannedResourcesNear(base) && barracks.size() > 0;
 
       if ((needBuilders || needHarvesters) && player.getResources() >= WORKER.cost) {
         train(base, WORKER);
@@ -73,13 +446,15 @@ public class DinkleBot extends AbstractionLayerAI{
     }
   }
 
+  // What the enemy fields and the production order that answers it
+  private final OpponentModel opponent = new OpponentModel();
+  private final UnitType[] armyTypes = new UnitType[3];
   private class Barracks {
     public Barracks() {
-      barracks.forEach(barrack -> {
-        if (barrack.isIdle(game)) {
-          assignTask(barrack);
-        }
-      });
+      // Once the planner has a plan its own model takes over, having seen every frame it was handed
+      if (!planned())
+        opponent.observe(game.getTime(), enemyViews.count(WORKER), enemyViews.count(LIGHT), enemyViews.count(HEAVY), enemyViews.count(RANGED), enemyViews.count(BARRACKS));
+      forEachAdmitted(barracks, this::assignTask);
     }
 
     private void assignTask(Unit barrack) {
@@ -88,46 +463,38 @@ public class DinkleBot extends AbstractionLayerAI{
       Unit base = findClosest(bases, barrack);
       // If our base is gone, train the best unit we can and rush
       if (base == null){
-        if(player.getResources() >= RANGED.cost) {
-          train(barrack, RANGED);
-          return;
-        } else if(player.getResources() >= HEAVY.cost) {
-          train(barrack, HEAVY);
-          return;
-        } else if(player.getResources() >= LIGHT.cost) {
-          train(barrack, LIGHT);
-          return;
-        } else {
-          return;
-        }
+        trainPlanned(barrack);
+        return;
       }
-      List<Unit> nearbyDefenders = findUnitsWithin(lights, base, 4);
-      boolean shouldMakeDefenders = defenders.size() < 5*bases.size() && nearbyDefenders.size() < 5;
+      int nearbyDefenders = countUnitsWithin(lights, base, defenderRadius);
+      boolean shouldMakeDefenders = defenders.size() < defendersPerBase*bases.size() && nearbyDefenders < defendersPerBase;
       
-      // Prioritize making light defenders. Otherwise, make the largest unit we can
+      // Prioritize making light defenders. Otherwise, make the best counter to the enemy we can
       if (shouldMakeDefenders && player.getResources() >= LIGHT.cost) {
         train(barrack, LIGHT);
         return;
-      } else if(player.getResources() >= RANGED.cost) {
-        train(barrack, RANGED);
-        return;
-      } else if(player.getResources() >= HEAVY.cost) {
-        train(barrack, HEAVY);
-        return;
-      } else if(player.getResources() >= LIGHT.cost) {
-        train(barrack, LIGHT);
-        return;
+      }
+      trainPlanned(barrack);
+    }
+
+    // The first unit of the opponent model's plan that we can afford
+    private void trainPlanned(Unit barrack) {
+      int[] plan = planned() ? strategy.production : opponent.plan();
+      for (int i = 0; i < plan.length; i++) {
+        UnitType type = armyTypes[plan[i]];
+        if (player.getResources() >= type.cost) {
+          train(barrack, type);
+          return;
+        }
       }
     }
   }
 
-  List<Unit> harvesters = new ArrayList<>();
-  List<Unit> builders = new ArrayList<>();
+  UnitIdSet harvesters = new UnitIdSet();
+  UnitIdSet builders = new UnitIdSet();
   private class Workers{
     public Workers() {
-      // Remove any workers that have died from their respective lists
-      harvesters.removeIf(harvester -> !workers.contains(harvester));
-      builders.removeIf(builder -> !workers.contains(builder));
+      // Workers that died were already dropped from their roles in setActionState
 
       // If we have a barracks for each base, we don't need builders anymore
       if (barracks.size() == bases.size())
@@ -136,23 +503,26 @@ public class DinkleBot extends AbstractionLayerAI{
       if (bases.size() == 0) {
         harvesters.clear();
       }
+      ledger.refresh();
 
-      workers.forEach(worker -> {
-        if (worker.isIdle(game)) {
-          assignTask(worker);
-        }
-      });
+      forEachAdmitted(workers, this::assignTask);
     }
 
     private void assignTask(Unit worker) {
-      // Create a copy of the resources list to search for resources that are not
-      // at full occupancy
-      Unit resource = null;
-      List<Unit> possResources = new ArrayList<>(resources);
-      if (possResources.size() > 0)
-        possResources.removeIf(rsrc -> findUnitsWithin(units, rsrc, 1).size()>=2 || findUnitsWithin(_bases, rsrc, (int) Math.sqrt(board.getHeight()*board.getHeight()+board.getWidth()*board.getWidth())/4).size() > 0);
-        resource = findClosest(possResources, worker);
-      
+      // A harvester whose patch and base are both still there keeps at them, and keeps its
+      // place in the ledger
+      if (intents.kind(worker) == IntentCache.HARVEST && harvesters.contains(worker.getID()) && !_units.isEmpty()) {
+        metrics.count(BotMetrics.INTENTS);
+        harvest(worker, intents.target(worker), intents.base(worker));
+        return;
+      }
+      intents.forget(worker);
+
+      // Look for the closest resource that is not at full occupancy, preferring ones
+      // that don't already have enough harvesters heading to them
+      ledger.release(worker.getID());
+      Unit resource = ledger.pick(worker);
+
       Unit base = findClosest(bases, worker);
       Unit enemy = findClosest(_units, worker);
 
@@ -167,28 +537,28 @@ public class DinkleBot extends AbstractionLayerAI{
         return;
       }
 
-      boolean isBuilder = builders.contains(worker);
-      boolean isHarvester = harvesters.contains(worker);
+      boolean isBuilder = builders.contains(worker.getID());
+      boolean isHarvester = harvesters.contains(worker.getID());
 
-      boolean needHarvesters = harvesters.size() < 2*possResources.size() && barracks.size() > 0;
+      boolean needHarvesters = harvesters.size() < harvestersPerResource*ledger.available() && barracks.size() > 0;
       boolean canBuildBarracks = player.getResources() >= BARRACKS.cost;
       boolean needBuilders = barracks.size() == 0 && builders.size() == 0;
       if (!needBuilders)
         needBuilders = barracks.size() != bases.size() && builders.size() < (bases.size()-barracks.size()) && distance(findClosest(barracks, base), base) > 2;
       
       // Prioritize needing harvesters early
-      if (!isBuilder && !isHarvester && harvesters.size() < 3) {
-        harvesters.add(worker);
+      if (!isBuilder && !isHarvester && harvesters.size() < initialHarvesters) {
+        harvesters.add(worker.getID());
         isHarvester = true;
         // System.out.println("Worker assigned as harvester");
       } 
       // Otherwise, we need a builder
       else if (!isBuilder && !isHarvester && needBuilders) {
-        builders.add(worker);
+        builders.add(worker.getID());
         isBuilder = true;
         // System.out.println("Worker assigned as builder");
       } else if (!isBuilder && !isHarvester && needHarvesters){
-        harvesters.add(worker);
+        harvesters.add(worker.getID());
         isHarvester = true;
       }
       // If we have an extra worker for some reason (possibly late game), instruct it to rush
@@ -199,7 +569,9 @@ public class DinkleBot extends AbstractionLayerAI{
       }
 
       if (isHarvester) {
+        ledger.assign(worker, resource);
         harvest(worker, resource, base);
+        intents.harvest(worker, resource, base);
         return;
       } else if (isBuilder && canBuildBarracks) {
         /*
@@ -225,104 +597,222 @@ public class DinkleBot extends AbstractionLayerAI{
         build(worker, BARRACKS, barracksPosition[0], barracksPosition[1]);
       }
     }
+  }
 
-    int[] findBarracksLocation(Unit base) {
-      if (base == null) {
-        int[] position = {0, 0};
-        return position;
+  /*
+   * Per-frame view of the resource patches for harvest assignment. For each patch it keeps
+   * how many of our units stand next to it, whether an enemy base is close enough to contest
+   * it, and how many harvesters have been sent to it. A patch with harvestersPerResource of
+   * our units next to it or an enemy base nearby isn't available; among available patches a
+   * worker goes to the closest one that doesn't already have harvestersPerResource
+   * harvesters heading to it, or simply the closest one if they all do.
+   */
+  private final ResourceLedger ledger = new ResourceLedger();
+  private class ResourceLedger {
+    // Indexed by the patch's snapshot slot
+    private int[] adjacent = new int[0];
+    private int[] assigned = new int[0];
+    private boolean[] contested = new boolean[0];
+    private int available;
+    private GameState refreshedGame;
+    private int refreshedTime = -1;
+
+    // Harvester -> resource it was sent to, kept across frames
+    private long[] assignedWorkers = new long[8];
+    private long[] assignedResources = new long[8];
+    private int assignments;
+
+    void refresh() {
+      if (game == refreshedGame && game.getTime() == refreshedTime)
+        return;
+      refreshedGame = game;
+      refreshedTime = game.getTime();
+
+      if (adjacent.length < snapshot.count) {
+        adjacent = new int[snapshot.x.length];
+        assigned = new int[snapshot.x.length];
+        contested = new boolean[snapshot.x.length];
+      }
+      int contestRadius = analysis.diagonal() / contestRadiusDivisor;
+      List<Unit> _bases = _bases();
+      available = 0;
+      for (int r = 0; r < snapshot.resourceCount; r++) {
+        int i = snapshot.resourceSlots[r];
+        adjacent[i] = countUnitsWithin(units, snapshot.x[i], snapshot.y[i], 1);
+        contested[i] = countUnitsWithin(_bases, snapshot.x[i], snapshot.y[i], contestRadius) > 0;
+        assigned[i] = 0;
+        if (isAvailable(i))
+          available++;
       }
-      
-      // Get the location of the nearby base
-      int baseX = base.getX();
-      int baseY = base.getY();
 
-      // Lists to hold possible (x, y) positions for the barracks
-      List<Integer> possX = new ArrayList<>();
-      List<Integer> possY = new ArrayList<>();
+      // Drop assignments of workers that stopped harvesting or patches that ran out
+      for (int a = assignments - 1; a >= 0; a--) {
+        int i = indexOf(assignedResources[a]);
+        if (i < 0 || !harvesters.contains(assignedWorkers[a]))
+          removeAssignment(a);
+        else
+          assigned[i]++;
+      }
+    }
+
+    int available() {
+      return available;
+    }
 
-      // Determine all spaces adjacent to the base
-      for (int i = -1; i <= 1; i++) {
-        if (i == 0)
+    Unit pick(Unit worker) {
+      int workerX = worker.getX();
+      int workerY = worker.getY();
+      int closest = -1;
+      int closestOpen = -1;
+      int closestDist = Integer.MAX_VALUE;
+      int closestOpenDist = Integer.MAX_VALUE;
+      for (int r = 0; r < snapshot.resourceCount; r++) {
+        int i = snapshot.resourceSlots[r];
+        if (!isAvailable(i))
           continue;
-        int x = baseX + i;
-        int y = baseY + i;
-        if (x >= 0 && x < board.getWidth())
-          possX.add(x);
-        if (y >= 0 && y < board.getHeight())
-          possY.add(y);
-      }
-
-      // Make (x, y) pairs of all spaces adjacent to the base
-      List<int[]> positions = new ArrayList<>();
-      for (int x : possX) {
-        for (int y : possY) {
-          int[] position = {x, y};
-          positions.add(position);
+        int dist = snapshot.distance(i, workerX, workerY);
+        if (dist < closestDist) {
+          closest = i;
+          closestDist = dist;
+        }
+        if (assigned[i] < capacity() && dist < closestOpenDist) {
+          closestOpen = i;
+          closestOpenDist = dist;
         }
       }
+      int chosen = closestOpen >= 0 ? closestOpen : closest;
+      return chosen >= 0 ? snapshot.unit(chosen) : null;
+    }
 
-      // Find the nearest enemy base
-      Unit _base = findClosest(_bases, base);
-      int _baseX = 0;
-      int _baseY = 0;
-      if (_base != null) {
-        _baseX = _base.getX();
-        _baseY = _base.getY();
-      }
-      // Initialize the target build space
-      int target_x = 0;
-      int target_y = 0;
-      int dist = board.getHeight() + board.getWidth();
-      // Find the (x, y) pair that is furthest from the enemy base
-      for (int[] position : positions) {
-        int newDist = Math.abs(position[0] - _baseX) + Math.abs(position[1] - _baseY);
-        if (newDist < dist) {
-          target_x = position[0];
-          target_y = position[1];
-          dist = newDist;
-        }
+    void assign(Unit worker, Unit resource) {
+      release(worker.getID());
+      int i = indexOf(resource.getID());
+      if (i < 0)
+        return;
+      if (assignments == assignedWorkers.length) {
+        assignedWorkers = Arrays.copyOf(assignedWorkers, assignments * 2);
+        assignedResources = Arrays.copyOf(assignedResources, assignments * 2);
       }
+      assignedWorkers[assignments] = worker.getID();
+      assignedResources[assignments] = resource.getID();
+      assignments++;
+      assigned[i]++;
+    }
+
+    void release(long worker) {
+      for (int a = assignments - 1; a >= 0; a--) {
+        if (assignedWorkers[a] != worker)
+          continue;
+        int i = indexOf(assignedResources[a]);
+        if (i >= 0)
+          assigned[i]--;
+        removeAssignment(a);
+      }
+    }
+
+    void clear() {
+      assignments = 0;
+      refreshedGame = null;
+    }
+
+    private boolean isAvailable(int i) {
+      return adjacent[i] < capacity() && !contested[i];
+    }
 
-      int[] target_position = {target_x, target_y};
+    // Harvesters a patch takes; always at least one, or no patch would ever be available
+    private int capacity() {
+      return Math.max(1, harvestersPerResource);
+    }
+
+    private int indexOf(long resourceId) {
+      int i = snapshot.slot(resourceId);
+      return i >= 0 && snapshot.owner[i] < 0 ? i : -1;
+    }
 
-      return target_position;
+    private void removeAssignment(int a) {
+      assignments--;
+      assignedWorkers[a] = assignedWorkers[assignments];
+      assignedResources[a] = assignedResources[assignments];
     }
   }
 
-  private List<Unit> defenders = new ArrayList<>();
-  private List<Unit> attackers = new ArrayList<>();
+  private UnitIdSet defenders = new UnitIdSet();
+  private UnitIdSet attackers = new UnitIdSet();
+  // What a light's decision looks up, worked out ahead for each light of a parallel pass
+  private static class LightView {
+    Unit base, _base, enemy, baseThreat, target;
+    int nearbyDefenders;
+  }
+  private LightView[] lightViews = new LightView[0];
+  // Ranked defender slots per (base, enemy base) and the slots defenders have claimed
+  private final FormationSlots formation = new FormationSlots();
   private class Lights {
     public Lights() {
-      // Remove any units that have died from the list of available units
-      defenders.removeIf(defender -> !lights.contains(defender));
-      attackers.removeIf(attacker -> !lights.contains(attacker));
+      // Lights that died were already dropped from their roles in setActionState
 
       // If we've lost our base, we no longer need to defend it, and if the enemy has
       // lost their base or all other units, we'll rush
-      boolean allEnemiesGone = _workers.size() == 0 && _lights.size() == 0 && _heavies.size() == 0 && _rangers.size() == 0;
-      if (bases.size() == 0 || _bases.size() == 0 || allEnemiesGone) {
+      if (bases.size() == 0 || enemyViews.count(BASE) == 0 || allEnemiesGone()) {
         defenders.clear();
+        formation.releaseAll();
       }
 
-      lights.forEach(light -> {
-        if (light.isIdle(game)) {
-          assignTask(light);
-        }
+      if (parallelThreshold <= 0) {
+        forEachAdmitted(lights, this::assignTask);
+        return;
+      }
+      admitted.clear();
+      forEachAdmitted(lights, admitted::add);
+      if (!inParallel(admitted.size())) {
+        admitted.forEach(this::assignTask);
+        return;
+      }
+      if (lightViews.length < admitted.size()) {
+        lightViews = Arrays.copyOf(lightViews, Math.max(admitted.size(), lightViews.length * 2));
+        for (int i = 0; i < lightViews.length; i++)
+          if (lightViews[i] == null)
+            lightViews[i] = new LightView();
+      }
+      SpatialIndex ownBases = spatialIndex.get(bases);
+      SpatialIndex enemyBases = spatialIndex.get(_bases());
+      SpatialIndex enemies = spatialIndex.get(_units);
+      SpatialIndex ownLights = spatialIndex.get(lights);
+      evaluateInParallel(admitted.size(), (own, i) -> {
+        Unit light = admitted.get(i);
+        LightView view = lightViews[i];
+        view.base = ownBases.findClosest(light);
+        view._base = enemyBases.findClosest(light);
+        view.enemy = enemies.findClosest(light);
+        view.nearbyDefenders = view.base == null ? 0 : ownLights.countUnitsWithin(view.base.getX(), view.base.getY(), defenderRadius);
+        view.baseThreat = view.base == null ? null : enemies.findClosest(view.base);
+        Unit target = targetInReach(light, own);
+        view.target = target != null ? target : view.enemy;
       });
+      for (int i = 0; i < admitted.size(); i++)
+        assignTask(admitted.get(i), lightViews[i]);
     }
 
     private void assignTask(Unit light) {
-      Unit base = findClosest(bases, light);
-      Unit _base = findClosest(_bases, light);
-      Unit enemy = findClosest(_units, light);
-      List<Unit> nearbyDefenders = new ArrayList<>();
-      boolean isDefender = defenders.contains(light);
-      boolean isAttacker = attackers.contains(light);      
+      assignTask(light, null);
+    }
+
+    // With a view, what it holds stands in for the lookups of the same name
+    private void assignTask(Unit light, LightView view) {
+      if (repeatIntent(light))
+        return;
+      intents.forget(light);
+
+      Unit base = view != null ? view.base : findClosest(bases, light);
+      Unit _base = view != null ? view._base : findClosest(_bases(), light);
+      Unit enemy = view != null ? view.enemy : findClosest(_units, light);
+      int nearbyDefenders = 0;
+      boolean isDefender = defenders.contains(light.getID());
+      boolean isAttacker = attackers.contains(light.getID());      
 
       if (enemy == null)
         return;
       if (base != null) {
-        nearbyDefenders = findUnitsWithin(lights, base, 4);
+        nearbyDefenders = view != null ? view.nearbyDefenders : countUnitsWithin(lights, base, defenderRadius);
       } else if (base == null) {
         attack(light, enemy);
         return;
@@ -339,13 +829,12 @@ public class DinkleBot extends AbstractionLayerAI{
        * 3. If we have a base to defend
        * If all of these conditions are met and the light unit is unassigned, it will be assigned as a defender
        */
-      boolean allEnemiesGone = _workers.size() == 0 && _lights.size() == 0 && _heavies.size() == 0 && _rangers.size() == 0;
-      boolean needDefenders = defenders.size() < 5*bases.size() && nearbyDefenders.size() < 5 && base != null && !allEnemiesGone;
+      boolean needDefenders = defenders.size() < defendersPerBase*bases.size() && nearbyDefenders < defendersPerBase && base != null && !allEnemiesGone();
       if (needDefenders && !isAttacker && !isDefender) {
-        defenders.add(light);
+        defenders.add(light.getID());
         isDefender = true;
       } else if (!isAttacker && !isDefender) {
-        attackers.add(light);
+        attackers.add(light.getID());
         isAttacker = true;
       }
 
@@ -371,130 +860,487 @@ public class DinkleBot extends AbstractionLayerAI{
        */
       if (isDefender) {
         // Logic to determine if a defender should attack a nearby enemy
-        if (findUnitsWithin(_units, base, 8).size() > 0) {
-          Unit target = findClosest(_units, base);
-          attack(light, target);
-          return;
-        } else {
-          // Determining the exact space the unit should occupy...
-          // Get the location of the nearest base
-          int baseX = base.getX();
-          int baseY = base.getY();
-
-          // Get all x and y within four moves of the base
-          List<Integer> possX = new ArrayList<>();
-          List<Integer> possY = new ArrayList<>();
-          for (int i = -4; i <= 4; i++) {
-            int x = baseX + i;
-            int y = baseY + i;
-            if (x >= 0 && x < board.getWidth()) {
-              possX.add(x);
-            }
-            if (y >= 0 && y < board.getHeight()) {
-              possY.add(y);
-            }
-          }
-
-          // Collect all positions that are exactly four moves from the base
-          List<int[]> positions = new ArrayList<>();
-          for (int x : possX) {
-            for (int y : possY) {
-              if (Math.abs(x - baseX) + Math.abs(y - baseY) == 4) {
-                int[] position = {x, y};
-                positions.add(position);
-              }
-            }
+        if (influence.enemyDistance(base) <= engagementRadius) {
+          Unit target = view != null ? view.baseThreat : findClosest(_units, base);
+          if (shouldEngage(target)) {
+            attack(light, target);
+            return;
           }
-
-          // Get the location of the closest enemy base
-          int _baseX = _base.getX();
-          int _baseY = _base.getY();
-
-          // Find the unoccupied position closest to the enemy base
-          int target_x = 0;
-          int target_y = 0;
-          int dist = board.getHeight() + board.getWidth();
-          for (int[] pair : positions) {
-            int newDist = Math.abs(pair[0]-_baseX) + Math.abs(pair[1]-_baseY);
-            if (pair[0] == light.getX() && pair[1] == light.getY())
-              return;
-            if (newDist < dist && board.getUnitAt(pair[0], pair[1]) == null) {
-              target_x = pair[0];
-              target_y = pair[1];
-              dist = newDist;
-            }
-          }
-
-          // Move to the chosen position
-          move(light, target_x, target_y);
+        }
+        // Otherwise hold the line. Determining the exact space the unit should occupy...
+        int[] slot = findDefenderSlot(light, base, _base);
+        if (slot == null) {
+          intents.defend(light, light.getX() + light.getY() * board.getWidth(), base, _base);
           return;
         }
+
+        // Move to the chosen position. With every slot taken that is (0, 0), which isn't kept
+        // as an intent so the light asks again once a slot frees up
+        move(light, slot[0], slot[1]);
+        if (formation.holds(light.getID()))
+          intents.defend(light, slot[0] + slot[1] * board.getWidth(), base, _base);
+        return;
       } else {
-        attack(light, enemy);
+        Unit target = view != null ? view.target : chooseTarget(light);
+        intents.attack(light, target);
+        // A fight we'd lose is waited out where we stand, still hitting whatever comes in range
+        if (shouldEngage(target))
+          attack(light, target);
+        else
+          idle(light);
         return;
       }
     }
+
+    /*
+     * Does what the light was last told to if nothing it depends on has changed, and says
+     * whether it did. A defender goes back to its slot unless an enemy comes near the base
+     * or another unit took the slot. An attacker stays on its target unless it is being hit
+     * while the target is out of reach, so a closer enemy gets a look.
+     */
+    private boolean repeatIntent(Unit light) {
+      int kind = intents.kind(light);
+      if (kind == IntentCache.DEFEND && defenders.contains(light.getID())) {
+        if (influence.enemyDistance(intents.base(light)) <= engagementRadius)
+          return false;
+        int x = intents.cell(light) % board.getWidth();
+        int y = intents.cell(light) / board.getWidth();
+        boolean there = light.getX() == x && light.getY() == y;
+        if (!there && formation.isOccupied(x, y))
+          return false;
+        metrics.count(BotMetrics.INTENTS);
+        if (!there)
+          move(light, x, y);
+        return true;
+      }
+      if (kind == IntentCache.ATTACK && attackers.contains(light.getID())) {
+        Unit target = intents.target(light);
+        if (distance(light, target) > light.getType().attackRange + 1 && influence.threat(light) > 0)
+          return false;
+        metrics.count(BotMetrics.INTENTS);
+        if (shouldEngage(target))
+          attack(light, target);
+        else
+          idle(light);
+        return true;
+      }
+      return false;
+    }
   }
 
   private class Heavies {
     public Heavies() {
-      heavies.forEach(heavy -> {
-        if (heavy.isIdle(game)) {
-          assignTask(heavy);
-        }
-      });
-    }
-
-    private void assignTask(Unit heavy) {
-      attack(heavy, findClosest(_units, heavy));
+      forEachAdmitted(heavies, squad::enlist);
     }
   }
 
+  // Runs after Heavies, so idle heavies and rangers get their targets in one assignment
   private class Rangers {
     public Rangers() {
-      rangers.forEach(ranger -> {
-        if (ranger.isIdle(game)) {
-          assignTask(ranger);
+      forEachAdmitted(rangers, squad::enlist);
+      squad.assign();
+    }
+  }
+
+  /*
+   * Target assignment for heavies and rangers, solved for all idle ones at once instead of
+   * each walking at its own closest enemy.
+   *
+   * Every member lists up to CANDIDATES of the closest enemies within SEARCH_RADIUS (or just
+   * the closest enemy if none is that near), and all (member, enemy) pairs are taken in order
+   * of distance: a member gets the enemy of its pair unless it already has one or the damage
+   * committed to that enemy already covers its hit points. Members left over (every enemy
+   * near them is covered) go for their closest one anyway. The cost is bounded by the
+   * members times CANDIDATES, whatever the size of the enemy army.
+   *
+   * Commitments are kept across frames, so heavies and rangers still busy attacking count
+   * toward their target's damage until they die, their target dies, or they are reassigned.
+   */
+  private final SquadTargets squad = new SquadTargets();
+  private class SquadTargets {
+    private static final int CANDIDATES = 8;
+    private static final int SEARCH_RADIUS = 8;
+
+    // Members enlisted this pass and the enemy each was given
+    private final List<Unit> members = new ArrayList<>();
+    private final List<Unit> targets = new ArrayList<>();
+    // Candidate pairs as (distance << 32 | pair), pointing into pairMember/pairTarget
+    private long[] pairs = new long[64];
+    private int[] pairMember = new int[64];
+    private Unit[] pairTarget = new Unit[64];
+    private int pairCount;
+    // Up to CANDIDATES per member, from the member's slot on in parallel mode and from 0 otherwise
+    private Unit[] candidates = new Unit[CANDIDATES];
+    private int[] candidateDistance = new int[CANDIDATES];
+    private int[] candidateCount = new int[0];
+
+    // Attacker -> target and the damage of one attack, kept across frames
+    private long[] attackerIds = new long[8];
+    private long[] targetIds = new long[8];
+    private int[] attackerDamage = new int[8];
+    private int commitments;
+    // Target ID -> damage committed to it, rebuilt for every assignment
+    private final UnitIdMap committed = new UnitIdMap();
+
+    void enlist(Unit member) {
+      release(member.getID());
+      members.add(member);
+    }
+
+    void assign() {
+      if (members.isEmpty())
+        return;
+      committed.clear();
+      for (int c = 0; c < commitments; c++)
+        commit(targetIds[c], attackerDamage[c]);
+
+      pairCount = 0;
+      boolean ahead = inParallel(members.size());
+      if (ahead) {
+        if (candidateCount.length < members.size()) {
+          candidates = new Unit[members.size() * CANDIDATES];
+          candidateDistance = new int[members.size() * CANDIDATES];
+          candidateCount = new int[members.size()];
         }
-      });
+        evaluateInParallel(members.size(), (own, m) -> candidateCount[m] = findCandidates(members.get(m), m * CANDIDATES, own));
+      }
+      for (int m = 0; m < members.size(); m++) {
+        targets.add(null);
+        int first = ahead ? m * CANDIDATES : 0;
+        int found = ahead ? candidateCount[m] : findCandidates(members.get(m), 0, evaluator);
+        if (!ahead)
+          metrics.count(BotMetrics.FIND_WITHIN);
+        for (int k = 0; k < found; k++)
+          addPair(m, candidates[first + k], candidateDistance[first + k]);
+        // Nobody near, so just the closest enemy
+        if (found == 0) {
+          Unit closest = findClosest(_units, members.get(m));
+          if (closest != null)
+            addPair(m, closest, distance(members.get(m), closest));
+        }
+      }
+      Arrays.sort(pairs, 0, pairCount);
+
+      // Closest pairs first, skipping enemies whose hit points are already covered
+      for (int i = 0; i < pairCount; i++) {
+        int pair = (int) pairs[i];
+        int m = pairMember[pair];
+        Unit target = pairTarget[pair];
+        if (targets.get(m) != null || committedTo(target) >= target.getHitPoints())
+          continue;
+        targets.set(m, target);
+        commit(target.getID(), members.get(m).getType().minDamage);
+      }
+      // Anyone left over goes for its closest candidate, which is its first pair
+      for (int i = 0; i < pairCount; i++) {
+        int pair = (int) pairs[i];
+        int m = pairMember[pair];
+        if (targets.get(m) == null)
+          targets.set(m, pairTarget[pair]);
+      }
+
+      for (int m = 0; m < members.size(); m++) {
+        Unit member = members.get(m);
+        Unit target = targets.get(m);
+        if (target != null && member.getType() == HEAVY && !shouldEngage(target)) {
+          idle(member);
+          continue;
+        }
+        if (target != null)
+          remember(member, target);
+        attack(member, target);
+      }
+      members.clear();
+      targets.clear();
+    }
+
+    // A unit died: drop what it committed and what was committed to it
+    void forget(long unit) {
+      for (int c = commitments - 1; c >= 0; c--)
+        if (attackerIds[c] == unit || targetIds[c] == unit)
+          removeCommitment(c);
+    }
+
+    void clear() {
+      commitments = 0;
+      members.clear();
+      targets.clear();
+    }
+
+    // Up to CANDIDATES of the closest enemies within SEARCH_RADIUS of the member, in order of
+    // distance, written from slot first on; how many there are
+    private int findCandidates(Unit member, int first, Evaluator own) {
+      SpatialIndex enemies = spatialIndex.get(_units);
+      int[] near = own.within(enemies.size());
+      int found = enemies.selectWithin(member, SEARCH_RADIUS, near);
+      int count = 0;
+      for (; count < CANDIDATES && count < found; count++) {
+        // The closest left, the first in list order among equals
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < found; i++) {
+          if (near[i] < 0)
+            continue;
+          int dist = distance(member, enemies.unit(near[i]));
+          if (dist < bestDistance) {
+            best = i;
+            bestDistance = dist;
+          }
+        }
+        candidates[first + count] = enemies.unit(near[best]);
+        candidateDistance[first + count] = bestDistance;
+        near[best] = -1;
+      }
+      return count;
+    }
+
+    private void addPair(int m, Unit target, int dist) {
+      if (pairCount == pairs.length) {
+        pairs = Arrays.copyOf(pairs, pairCount * 2);
+        pairMember = Arrays.copyOf(pairMember, pairCount * 2);
+        pairTarget = Arrays.copyOf(pairTarget, pairCount * 2);
+      }
+      pairMember[pairCount] = m;
+      pairTarget[pairCount] = target;
+      pairs[pairCount] = ((long) dist << 32) | pairCount;
+      pairCount++;
+    }
+
+    private int committedTo(Unit target) {
+      return Math.max(0, committed.get(target.getID()));
+    }
+
+    private void commit(long target, int damage) {
+      committed.put(target, Math.max(0, committed.get(target)) + damage);
+    }
+
+    private void remember(Unit attacker, Unit target) {
+      if (commitments == attackerIds.length) {
+        attackerIds = Arrays.copyOf(attackerIds, commitments * 2);
+        targetIds = Arrays.copyOf(targetIds, commitments * 2);
+        attackerDamage = Arrays.copyOf(attackerDamage, commitments * 2);
+      }
+      attackerIds[commitments] = attacker.getID();
+      targetIds[commitments] = target.getID();
+      attackerDamage[commitments] = attacker.getType().minDamage;
+      commitments++;
+    }
+
+    private void release(long attacker) {
+      for (int c = commitments - 1; c >= 0; c--)
+        if (attackerIds[c] == attacker)
+          removeCommitment(c);
+    }
+
+    private void removeCommitment(int c) {
+      commitments--;
+      attackerIds[c] = attackerIds[commitments];
+      targetIds[c] = targetIds[commitments];
+      attackerDamage[c] = attackerDamage[commitments];
+    }
+  }
+
+  int[] findBarracksLocation(Unit base) {
+    if (base == null) {
+      int[] position = {0, 0};
+      return position;
     }
+    // Worked out once per base by the map analysis
+    return analysis.barracksSite(base);
+  }
 
-    private void assignTask(Unit ranger) {
-      attack(ranger, findClosest(_units, ranger));
+  // Resources in the base's region (the part of the map it is the closest start base to)
+  private int resourcesNear(Unit base) {
+    int region = analysis.region(base);
+    if (region < 0)
+      return countUnitsWithin(resources, base, analysis.diagonal() / HARVEST_RADIUS_DIVISOR);
+    int count = 0;
+    for (int r = 0; r < snapshot.resourceCount; r++) {
+      int i = snapshot.resourceSlots[r];
+      if (analysis.region(snapshot.x[i], snapshot.y[i]) == region)
+        count++;
+    }
+    return count;
+  }
+
+  /*
+   * Of the enemies within the unit's attack range plus one move, the one the rest of our army
+   * can put the most damage on next action, so fire is focused and it goes down first (ties
+   * go to the closer one). With nobody in reach, the closest enemy as before.
+   */
+  Unit chooseTarget(Unit unit) {
+    metrics.count(BotMetrics.FIND_WITHIN);
+    Unit target = targetInReach(unit, evaluator);
+    return target != null ? target : findClosest(_units, unit);
+  }
+
+  // chooseTarget's pick among the enemies in reach, or null if there are none
+  private Unit targetInReach(Unit unit, Evaluator own) {
+    SpatialIndex enemies = spatialIndex.get(_units);
+    int[] inReach = own.within(enemies.size());
+    int found = enemies.selectWithin(unit, unit.getType().attackRange + 1, inReach);
+    Unit target = null;
+    int targetStrength = -1;
+    int targetDistance = 0;
+    for (int i = 0; i < found; i++) {
+      Unit enemy = enemies.unit(inReach[i]);
+      int enemyStrength = influence.strength(enemy);
+      int enemyDistance = distance(unit, enemy);
+      if (enemyStrength > targetStrength || (enemyStrength == targetStrength && enemyDistance < targetDistance)) {
+        target = enemy;
+        targetStrength = enemyStrength;
+        targetDistance = enemyDistance;
+      }
     }
+    return target;
   }
 
-  private Unit findClosest(List<Unit> units, Unit reference) {
+  // The free cell defenderRadius moves from our base that is closest to the enemy base and not already
+  // claimed by another defender, or null if the light is already standing on one of those cells
+  int[] findDefenderSlot(Unit light, Unit base, Unit _base) {
+    return formation.claim(light, base, _base);
+  }
+
+  // The enemy's bases, filtered out of _units (and given a grid) the first time they're asked for after a change
+  List<Unit> _bases() {
+    boolean changed = !enemyViews.isFresh(BASE);
+    List<Unit> list = enemyViews.list(BASE, _units);
+    SpatialIndex index = spatialIndex.computeIfAbsent(list, l -> new SpatialIndex());
+    if (changed || index.isStale())
+      index.build(list, board.getWidth(), board.getHeight());
+    return list;
+  }
+
+  private boolean allEnemiesGone() {
+    return enemyViews.count(WORKER) == 0 && enemyViews.count(LIGHT) == 0 && enemyViews.count(HEAVY) == 0 && enemyViews.count(RANGED) == 0;
+  }
+
+  // Lists indexed this frame go through their grid, anything else (e.g. filtered copies) is scanned
+  Unit findClosest(List<Unit> units, Unit reference) {
+    metrics.count(BotMetrics.FIND_CLOSEST);
+    SpatialIndex index = spatialIndex.get(units);
+    if (index != null)
+      return index.findClosest(reference);
     return units.stream().min(Comparator.comparingInt(u -> distance(u, reference))).orElse(null);
   }
 
-  private List<Unit> findUnitsWithin(List<Unit> units, Unit reference, int distance) {
+  List<Unit> findUnitsWithin(List<Unit> units, Unit reference, int distance) {
+    metrics.count(BotMetrics.FIND_WITHIN);
+    SpatialIndex index = spatialIndex.get(units);
+    if (index != null)
+      return index.findUnitsWithin(reference, distance);
     return units.stream().filter(u -> distance(u, reference) <= distance).collect(Collectors.toList());
   }
 
+  int countUnitsWithin(List<Unit> units, Unit reference, int distance) {
+    return countUnitsWithin(units, reference.getX(), reference.getY(), distance);
+  }
+
+  int countUnitsWithin(List<Unit> units, int x, int y, int distance) {
+    metrics.count(BotMetrics.COUNT_WITHIN);
+    SpatialIndex index = spatialIndex.get(units);
+    if (index != null)
+      return index.countUnitsWithin(x, y, distance);
+    return (int) units.stream().filter(u -> Math.abs(u.getX() - x) + Math.abs(u.getY() - y) <= distance).count();
+  }
+
   private int distance(Unit u1, Unit u2) {
     return Math.abs(u1.getX() - u2.getX()) + Math.abs(u1.getY() - u2.getY());
   }
 
+  // Units chasing the same target share one distance field, with A* for routing around other units.
+  // On very large maps, pass a HierarchicalPathFinding to the other constructor instead
   public DinkleBot(UnitTypeTable unitTypeTable) {
-    this(unitTypeTable, new AStarPathFinding());
+    this(unitTypeTable, new FlowFieldPathFinding(new AStarPathFinding()));
   }
 
   public DinkleBot(UnitTypeTable unitTypeTable, PathFinding pf) {
     super(pf);
     this.unitTypeTable = unitTypeTable;
+    pathFinding = pf;
+    allocateUnits();
+    indexUnits();
     setUnitTypes();
-    resetUnits();
+    setTimeBudget(DEFAULT_TIME_BUDGET);
   }
 
   @Override
   public void reset(UnitTypeTable unitTypeTable) {
-    super.reset(unitTypeTable);
+    // The classification tables are keyed by the table's types, so resolve them again
+    this.unitTypeTable = unitTypeTable;
+    setUnitTypes();
+    reset();
+  }
+
+  // microRTS calls this between games, so everything kept from one game is dropped here
+  @Override
+  public void reset() {
+    super.reset();
+    tracker.reset();
+    trackedPlayer = -1;
+    harvesters.clear();
+    builders.clear();
+    defenders.clear();
+    attackers.clear();
+    ledger.clear();
+    formation.releaseAll();
+    squad.clear();
+    intents.clear();
+    opponent.reset();
+    restartPlanner();
+    analysis.clear();
+    budget.reset();
+  }
+
+  @Override
+  public void preGameAnalysis(GameState gs, long milliseconds) throws Exception {
+    analyseMap(gs.getPhysicalGameState());
+  }
+
+  // Looks the map over and, unless turned off, switches to the presets for its size
+  private void analyseMap(PhysicalGameState board) {
+    analysis.analyse(board);
+    if (!usePresets)
+      return;
+    Map<String, Integer> preset = PRESETS.forSize(Math.max(board.getWidth(), board.getHeight()));
+    for (Map.Entry<String, Integer> entry : preset.entrySet())
+      if (!setParameter(entry.getKey(), entry.getValue()))
+        System.err.println("DinkleBot: unknown preset parameter " + entry.getKey());
   }
 
   @Override
   public AI clone() {
-    return new DinkleBot(unitTypeTable, pf);
+    // A clone may play a different game on another thread at the same time, so it gets a
+    // pathfinder of its own; metrics aren't carried over
+    DinkleBot clone = new DinkleBot(unitTypeTable, copyOf(pathFinding));
+    clone.setTimeBudget(getTimeBudget());
+    clone.setCombatSimulation(combatSimulation);
+    clone.setParallelThreshold(parallelThreshold);
+    clone.setBackgroundPlanning(backgroundPlanning);
+    clone.setUsePresets(usePresets);
+    clone.setDefendersPerBase(defendersPerBase);
+    clone.setDefenderRadius(defenderRadius);
+    clone.setEngagementRadius(engagementRadius);
+    clone.setHarvestersPerResource(harvestersPerResource);
+    clone.setInitialHarvesters(initialHarvesters);
+    clone.setContestRadiusDivisor(contestRadiusDivisor);
+    return clone;
+  }
+
+  // A pathfinder of the same kind as pf with none of its search buffers or caches
+  private static PathFinding copyOf(PathFinding pf) {
+    if (pf instanceof FlowFieldPathFinding)
+      return new FlowFieldPathFinding(copyOf(((FlowFieldPathFinding) pf).getFallback()));
+    if (pf instanceof CachingPathFinding)
+      return new CachingPathFinding(copyOf(((CachingPathFinding) pf).getDelegate()));
+    if (pf instanceof HierarchicalPathFinding)
+      return new HierarchicalPathFinding(copyOf(((HierarchicalPathFinding) pf).getFallback()));
+    try {
+      return pf.getClass().getConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      // Nothing we know how to build another one of, so it has to be shared
+      return pf;
+    }
   }
 
   public void setActionState(int player, GameState game) {
@@ -502,104 +1348,232 @@ public class DinkleBot extends AbstractionLayerAI{
     this.game = game;
     board = game.getPhysicalGameState();
 
-    resetUnits();
-    for (Unit unit : board.getUnits()) {
-      if (unit.getPlayer() == player) {
-        units.add(unit);
-        switch (unit.getType().name) {
-          case "Base":
-            bases.add(unit);
-            break;
-          case "Barracks":
-            barracks.add(unit);
-            break;
-          case "Worker":
-            workers.add(unit);
-            break;
-          case "Light":
-            lights.add(unit);
-            break;
-          case "Heavy":
-            heavies.add(unit);
-            break;
-          case "Ranged":
-            rangers.add(unit);
-            break;
-        } 
-      } else if (unit.getPlayer() >= 0) {
-        _units.add(unit);
-        switch(unit.getType().name) {
-          case "Base":
-            _bases.add(unit);
-            break;
-          case "Barracks":
-            _barracks.add(unit);
-            break;
-          case "Worker":
-            _workers.add(unit);
-            break;
-          case "Light":
-            _lights.add(unit);
-            break;
-          case "Heavy":
-            _heavies.add(unit);
-            break;
-          case "Ranged":
-            _rangers.add(unit);
-            break;
-        }
-      } else {
-        resources.add(unit);
+    tracker.update(game);
+    // A new game (or a copied state that might be of another map) gets the map looked at again
+    if ((tracker.rebuilt() || game.getTime() == 0) && !analysis.matches(board, game.getTime()))
+      analyseMap(board);
+    if (tracker.rebuilt() || trackedPlayer != player) {
+      // Nothing to diff against, so classify the whole board again
+      trackedPlayer = player;
+      clearUnits();
+      List<Unit> boardUnits = board.getUnits();
+      for (int i = 0; i < boardUnits.size(); i++)
+        addUnit(boardUnits.get(i));
+      for (int i = 0; i < indexedLists.size(); i++)
+        invalidate(indexedLists.get(i));
+      influence.rebuild(board.getWidth(), board.getHeight(), boardUnits, player);
+      // Intents hold the previous frame's Unit objects
+      intents.clear();
+    } else {
+      List<Unit> deaths = tracker.deaths();
+      for (int i = 0; i < deaths.size(); i++) {
+        removeUnit(deaths.get(i));
+        influence.remove(deaths.get(i));
+      }
+      List<Unit> births = tracker.births();
+      for (int i = 0; i < births.size(); i++) {
+        addUnit(births.get(i));
+        influence.add(births.get(i));
+        // A new base of either side changes which patches are worth harvesting
+        if (births.get(i).getType().isStockpile)
+          intents.forgetAll(IntentCache.HARVEST);
+      }
+      List<Unit> moves = tracker.moves();
+      for (int i = 0; i < moves.size(); i++) {
+        invalidateLists(moves.get(i));
+        influence.move(moves.get(i));
+      }
+    }
+
+    // Units that died give up whatever role they held
+    List<Unit> deaths = tracker.deaths();
+    for (int i = 0; i < deaths.size(); i++) {
+      long id = deaths.get(i).getID();
+      harvesters.remove(id);
+      builders.remove(id);
+      defenders.remove(id);
+      attackers.remove(id);
+      formation.forget(id);
+      squad.forget(id);
+      intents.forget(id);
+    }
+    snapshot.build(board.getUnits());
+    formation.startFrame(board.getWidth(), board.getHeight(), snapshot);
+
+    // Rebuild the grids of the lists that changed
+    for (int i = 0; i < indexedLists.size(); i++) {
+      List<Unit> list = indexedLists.get(i);
+      SpatialIndex index = spatialIndex.get(list);
+      if (index.isStale())
+        index.build(list, board.getWidth(), board.getHeight());
+    }
+  }
+
+  // Index every list the role passes run spatial queries against
+  private void indexUnits() {
+    indexedLists.addAll(List.of(units, _units, bases, barracks, lights, resources));
+    for (List<Unit> list : indexedLists)
+      spatialIndex.put(list, new SpatialIndex());
+  }
+
+  // New units go to the end of their lists, which keeps every list in board order
+  private void addUnit(Unit unit) {
+    int owner = unit.getPlayer();
+    if (owner == trackedPlayer) {
+      units.add(unit);
+      classify(ownByType, unit);
+    } else if (owner >= 0) {
+      _units.add(unit);
+      enemyViews.add(unit);
+    } else {
+      resources.add(unit);
+    }
+    invalidateLists(unit);
+  }
+
+  private void removeUnit(Unit unit) {
+    invalidateLists(unit);
+    int owner = unit.getPlayer();
+    if (owner == trackedPlayer) {
+      removeFrom(units, unit);
+      removeFrom(listFor(ownByType, unit), unit);
+    } else if (owner >= 0) {
+      removeFrom(_units, unit);
+      enemyViews.remove(unit);
+    } else {
+      removeFrom(resources, unit);
+    }
+  }
+
+  private void invalidateLists(Unit unit) {
+    int owner = unit.getPlayer();
+    invalidate(owner == trackedPlayer ? units : owner >= 0 ? _units : resources);
+    if (owner == trackedPlayer)
+      invalidate(listFor(ownByType, unit));
+    else if (owner >= 0)
+      enemyViews.invalidate(unit);
+  }
+
+  private void invalidate(List<Unit> list) {
+    SpatialIndex index = list == null ? null : spatialIndex.get(list);
+    if (index != null)
+      index.invalidate();
+  }
+
+  private static void removeFrom(List<Unit> list, Unit unit) {
+    if (list == null)
+      return;
+    for (int i = list.size() - 1; i >= 0; i--) {
+      if (list.get(i) == unit) {
+        list.remove(i);
+        return;
       }
     }
   }
 
+  private List<Unit> listFor(List<List<Unit>> byType, Unit unit) {
+    int id = unit.getType().ID;
+    return id < byType.size() ? byType.get(id) : null;
+  }
+
+  private void classify(List<List<Unit>> byType, Unit unit) {
+    List<Unit> list = listFor(byType, unit);
+    if (list != null)
+      list.add(unit);
+  }
+
   private void setUnitTypes() {
+    ownByType.clear();
     for (UnitType unitType : unitTypeTable.getUnitTypes()) {
+      List<Unit> own = null;
       switch(unitType.name) {
         case "Worker":
           WORKER = unitType;
+          own = workers;
           break;
         case "Light":
           LIGHT = unitType;
+          own = lights;
           break;
         case "Heavy":
           HEAVY = unitType;
+          own = heavies;
           break;
         case "Ranged":
           RANGED = unitType;
+          own = rangers;
           break;
         case "Base":
           BASE = unitType;
+          own = bases;
           break;
         case "Barracks":
           BARRACKS = unitType;
+          own = barracks;
           break;
       }
+      while (ownByType.size() <= unitType.ID)
+        ownByType.add(null);
+      ownByType.set(unitType.ID, own);
     }
+    enemyViews.setTypes(ownByType.size());
+    armyTypes[OpponentModel.LIGHT] = LIGHT;
+    armyTypes[OpponentModel.HEAVY] = HEAVY;
+    armyTypes[OpponentModel.RANGED] = RANGED;
+    plannerKinds[StrategyPlanner.BASE] = BASE;
+    plannerKinds[StrategyPlanner.BARRACKS] = BARRACKS;
+    plannerKinds[StrategyPlanner.WORKER] = WORKER;
+    plannerKinds[StrategyPlanner.LIGHT] = LIGHT;
+    plannerKinds[StrategyPlanner.HEAVY] = HEAVY;
+    plannerKinds[StrategyPlanner.RANGED] = RANGED;
+  }
+
+  // The unit lists live for the whole game; sizes are a typical mid-game count so they rarely grow
+  private void allocateUnits() {
+    units = new ArrayList<>(64);
+    _units = new ArrayList<>(64);
+    bases = new ArrayList<>(4);
+    barracks = new ArrayList<>(4);
+    workers = new ArrayList<>(32);
+    lights = new ArrayList<>(32);
+    heavies = new ArrayList<>(32);
+    rangers = new ArrayList<>(32);
+    resources = new ArrayList<>(32);
   }
 
-  private void resetUnits() {
-    units = new ArrayList<>();
-    _units = new ArrayList<>();
-    bases = new ArrayList<>();
-    _bases = new ArrayList<>();
-    barracks = new ArrayList<>();
-    _barracks = new ArrayList<>();
-    workers = new ArrayList<>();
-    _workers = new ArrayList<>();
-    lights = new ArrayList<>();
-    _lights = new ArrayList<>();
-    heavies = new ArrayList<>();
-    _heavies = new ArrayList<>();
-    rangers = new ArrayList<>();
-    _rangers = new ArrayList<>();
-    resources = new ArrayList<>();
+  private void clearUnits() {
+    units.clear();
+    _units.clear();
+    enemyViews.clear();
+    bases.clear();
+    barracks.clear();
+    workers.clear();
+    lights.clear();
+    heavies.clear();
+    rangers.clear();
+    resources.clear();
   }
 
   @Override
   public List<ParameterSpecification> getParameters() {
-    return null;
+    List<ParameterSpecification> parameters = new ArrayList<>();
+    // Milliseconds per frame; zero or less plans every idle unit regardless of time
+    parameters.add(new ParameterSpecification("TimeBudget", int.class, DEFAULT_TIME_BUDGET));
+    // Simulate skirmishes before lights and heavies commit to them
+    parameters.add(new ParameterSpecification("CombatSimulation", boolean.class, false));
+    // Plan passes with at least this many units on all cores; zero or less never does
+    parameters.add(new ParameterSpecification("ParallelThreshold", int.class, 0));
+    // Work out harvester quotas and production on a thread of its own
+    parameters.add(new ParameterSpecification("BackgroundPlanning", boolean.class, false));
+    // Strategy constants; with UsePresets they are replaced by the map size's presets at game start
+    parameters.add(new ParameterSpecification("UsePresets", boolean.class, true));
+    parameters.add(new ParameterSpecification("DefendersPerBase", int.class, 5));
+    parameters.add(new ParameterSpecification("DefenderRadius", int.class, 4));
+    parameters.add(new ParameterSpecification("EngagementRadius", int.class, 8));
+    parameters.add(new ParameterSpecification("HarvestersPerResource", int.class, 2));
+    parameters.add(new ParameterSpecification("InitialHarvesters", int.class, 3));
+    parameters.add(new ParameterSpecification("ContestRadiusDivisor", int.class, 4));
+    return parameters;
   }
 }
 
@@ -0,0 +1,77 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/*
+ * The enemy's units by type, kept as counts and only turned into lists on demand.
+ *
+ * Most of what the role passes want to know about the enemy is how many of a type it has,
+ * so those counts are kept in step with the tracker and read in O(1). A type's list is
+ * filtered out of the enemy list the first time a pass asks for it after a unit of that
+ * type was born, died or moved, and reused until then. Lists come out in the order of the
+ * enemy list, so in board order like the eager lists, and each type keeps one list object
+ * for the whole game so a grid can be keyed on it.
+ */
+class EnemyViews {
+  private int[] counts = new int[0];
+  // Whether a type's list matches the enemy list
+  private boolean[] fresh = new boolean[0];
+  private final List<List<Unit>> lists = new ArrayList<>();
+
+  // Makes room for type IDs below `types`, dropping everything counted so far
+  void setTypes(int types) {
+    counts = new int[types];
+    fresh = new boolean[types];
+    while (lists.size() < types)
+      lists.add(new ArrayList<>());
+    clear();
+  }
+
+  void clear() {
+    Arrays.fill(counts, 0);
+    Arrays.fill(fresh, false);
+    for (List<Unit> list : lists)
+      list.clear();
+  }
+
+  void add(Unit unit) {
+    counts[unit.getType().ID]++;
+    invalidate(unit);
+  }
+
+  void remove(Unit unit) {
+    counts[unit.getType().ID]--;
+    invalidate(unit);
+  }
+
+  // The unit's type gained, lost or moved a unit, so its list has to be filtered again
+  void invalidate(Unit unit) {
+    fresh[unit.getType().ID] = false;
+  }
+
+  int count(UnitType type) {
+    return type == null ? 0 : counts[type.ID];
+  }
+
+  boolean isFresh(UnitType type) {
+    return fresh[type.ID];
+  }
+
+  // The enemy's units of this type, filtered out of `enemies` if they changed since last time
+  List<Unit> list(UnitType type, List<Unit> enemies) {
+    List<Unit> list = lists.get(type.ID);
+    if (!fresh[type.ID]) {
+      list.clear();
+      for (int i = 0; i < enemies.size(); i++)
+        if (enemies.get(i).getType() == type)
+          list.add(enemies.get(i));
+      fresh[type.ID] = true;
+    }
+    return list;
+  }
+}
@@ -0,0 +1,181 @@
+package DinkleBot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/*
+ * PathFinding that shares one BFS distance field per target between every unit heading
+ * there, instead of running a separate search per unit.
+ *
+ * Fields are computed over the map's static obstacles (walls and units that can't move,
+ * i.e. bases, barracks and resources) and cached by target cell and range. The cache is
+ * tied to an obstacle version that only changes when a static obstacle appears or
+ * disappears, so fields survive from one frame to the next. Mobile units are handled when
+ * a step is taken: the unit moves to the free neighbour that is closest to the target, and
+ * if every downhill neighbour is blocked (or reserved this frame) the fallback search is
+ * used to route around them.
+ */
+public class FlowFieldPathFinding extends PathFinding {
+  private static final int UNREACHABLE = Integer.MAX_VALUE;
+  private static final int MAX_FIELDS = 64;
+
+  private final PathFinding fallback;
+
+  // Static obstacles as of the last frame we saw, and the version they define
+  private final StaticObstacles obstacles = new StaticObstacles();
+  private int width, height;
+  private int obstacleVersion;
+
+  // Fields keyed by (target cell, range), least recently used first
+  private final Map<Long, int[]> fields = new LinkedHashMap<>(16, 0.75f, true);
+  private int fieldVersion = -1;
+  // BFS queue; every cell goes in at most once per field
+  private int[] queue = new int[0];
+  private final ReservedCells reserved = new ReservedCells();
+
+  public FlowFieldPathFinding(PathFinding fallback) {
+    this.fallback = fallback;
+  }
+
+  public PathFinding getFallback() {
+    return fallback;
+  }
+
+  @Override
+  public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    return fallback.pathExists(start, targetpos, gs, ru);
+  }
+
+  @Override
+  public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    return fallback.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, 0, gs, ru);
+    return step != null ? step : fallback.findPath(start, targetpos, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, range, gs, ru);
+    return step != null ? step : fallback.findPathToPositionInRange(start, targetpos, range, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, 1, gs, ru);
+    return step != null ? step : fallback.findPathToAdjacentPosition(start, targetpos, gs, ru);
+  }
+
+  /*
+   * Returns the move down the distance field, or null when the field can't answer (already
+   * in range, statically unreachable, or every downhill neighbour taken) and the fallback
+   * should decide.
+   */
+  private UnitAction step(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    refreshObstacles(gs);
+    int from = start.getX() + start.getY() * width;
+    int[] field = field(targetpos, range);
+    if (field[from] == 0 || field[from] == UNREACHABLE)
+      return null;
+
+    reserved.load(ru, width * height);
+    int bestDirection = -1;
+    int bestDist = field[from];
+    for (int direction = 0; direction < 4; direction++) {
+      int x = start.getX() + UnitAction.DIRECTION_OFFX[direction];
+      int y = start.getY() + UnitAction.DIRECTION_OFFY[direction];
+      if (x < 0 || y < 0 || x >= width || y >= height)
+        continue;
+      int cell = x + y * width;
+      if (field[cell] >= bestDist || !gs.free(x, y))
+        continue;
+      if (reserved.contains(cell))
+        continue;
+      bestDirection = direction;
+      bestDist = field[cell];
+    }
+    return bestDirection < 0 ? null : new UnitAction(UnitAction.TYPE_MOVE, bestDirection);
+  }
+
+  private int[] field(int targetpos, int range) {
+    if (fieldVersion != obstacleVersion) {
+      fields.clear();
+      fieldVersion = obstacleVersion;
+    }
+    Long key = ((long) targetpos << 32) | range;
+    int[] field = fields.get(key);
+    if (field != null)
+      return field;
+
+    // Recycle the least recently used field once the cache is full
+    if (fields.size() >= MAX_FIELDS) {
+      Iterator<int[]> eldest = fields.values().iterator();
+      field = eldest.next();
+      eldest.remove();
+    } else {
+      field = new int[width * height];
+    }
+    computeField(field, targetpos, range);
+    fields.put(key, field);
+    return field;
+  }
+
+  // Multi-source BFS from every open cell in range of the target (squared distance, as in A*)
+  private void computeField(int[] field, int targetpos, int range) {
+    Arrays.fill(field, UNREACHABLE);
+    if (queue.length < field.length)
+      queue = new int[field.length];
+    int head = 0, tail = 0;
+    int targetX = targetpos % width;
+    int targetY = targetpos / width;
+    int sqRange = range * range;
+    for (int y = Math.max(0, targetY - range); y <= Math.min(height - 1, targetY + range); y++) {
+      for (int x = Math.max(0, targetX - range); x <= Math.min(width - 1, targetX + range); x++) {
+        int dx = x - targetX;
+        int dy = y - targetY;
+        int cell = x + y * width;
+        if (dx * dx + dy * dy <= sqRange && !obstacles.blocked(cell)) {
+          field[cell] = 0;
+          queue[tail++] = cell;
+        }
+      }
+    }
+
+    while (head < tail) {
+      int cell = queue[head++];
+      int x = cell % width;
+      int y = cell / width;
+      for (int direction = 0; direction < 4; direction++) {
+        int nx = x + UnitAction.DIRECTION_OFFX[direction];
+        int ny = y + UnitAction.DIRECTION_OFFY[direction];
+        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+          continue;
+        int next = nx + ny * width;
+        if (obstacles.blocked(next) || field[next] != UNREACHABLE)
+          continue;
+        field[next] = field[cell] + 1;
+        queue[tail++] = next;
+      }
+    }
+  }
+
+  // Once per frame, bump the version if a static obstacle appeared or disappeared
+  private void refreshObstacles(GameState gs) {
+    if (obstacles.refresh(gs) && obstacles.changed()) {
+      width = obstacles.width();
+      height = obstacles.height();
+      obstacleVersion++;
+    }
+  }
+}
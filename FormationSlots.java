@@ -0,0 +1,183 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+
+/*
+ * Defender slots around our bases, ranked once per (base, enemy base) pair.
+ *
+ * A formation is every cell exactly radius moves from the base, ordered by distance to
+ * the enemy base (ties keep the column-then-row order the slots used to be scanned in).
+ * It is kept until either base moves or dies. Defenders claim the slot they head for, so
+ * two defenders planning in the same or consecutive frames don't race to the same cell.
+ */
+class FormationSlots {
+  private int radius = 4;
+
+  private final List<Formation> formations = new ArrayList<>();
+  private int width, height;
+
+  // Claimed slot cells and the defender holding each
+  private int[] claimCells = new int[8];
+  private long[] claimOwners = new long[8];
+  private int claims;
+
+  // Occupied cells, stamped with the frame they were seen in
+  private int[] occupied = new int[0];
+  private int frame;
+
+  // Called once per frame with every unit on the board; a new map size drops everything
+  void startFrame(int width, int height, UnitSnapshot snapshot) {
+    if (width != this.width || height != this.height) {
+      this.width = width;
+      this.height = height;
+      formations.clear();
+      claims = 0;
+      occupied = new int[width * height];
+      frame = 0;
+    }
+    frame++;
+    for (int s = 0; s < snapshot.count; s++)
+      occupied[snapshot.x[s] + snapshot.y[s] * width] = frame;
+  }
+
+  /*
+   * The best free, unclaimed slot for the defender, which is claimed for it, or null if the
+   * defender is already standing on a slot. With no slot left it gets (0, 0), as before.
+   */
+  int[] claim(Unit defender, Unit base, Unit _base) {
+    Formation formation = formation(base, _base);
+    int at = defender.getX() + defender.getY() * width;
+    for (int cell : formation.cells)
+      if (cell == at)
+        return null;
+
+    release(defender.getID());
+    for (int cell : formation.cells) {
+      if (occupied[cell] == frame || claimed(cell))
+        continue;
+      if (claims == claimCells.length) {
+        claimCells = Arrays.copyOf(claimCells, claims * 2);
+        claimOwners = Arrays.copyOf(claimOwners, claims * 2);
+      }
+      claimCells[claims] = cell;
+      claimOwners[claims] = defender.getID();
+      claims++;
+      int[] position = {cell % width, cell / width};
+      return position;
+    }
+    int[] position = {0, 0};
+    return position;
+  }
+
+  // Whether a unit stood on the cell when the frame started
+  boolean isOccupied(int x, int y) {
+    return occupied[x + y * width] == frame;
+  }
+
+  void release(long defender) {
+    for (int i = claims - 1; i >= 0; i--) {
+      if (claimOwners[i] == defender) {
+        claims--;
+        claimCells[i] = claimCells[claims];
+        claimOwners[i] = claimOwners[claims];
+      }
+    }
+  }
+
+  // Whether the defender holds a slot, i.e. its last claim didn't fall back to (0, 0)
+  boolean holds(long defender) {
+    for (int i = 0; i < claims; i++)
+      if (claimOwners[i] == defender)
+        return true;
+    return false;
+  }
+
+  void releaseAll() {
+    claims = 0;
+  }
+
+  // A new radius means new formations
+  void setRadius(int radius) {
+    if (radius == this.radius)
+      return;
+    this.radius = radius;
+    formations.clear();
+    claims = 0;
+  }
+
+  // A unit died: free its claim, and drop any formation built around it
+  void forget(long unit) {
+    release(unit);
+    formations.removeIf(formation -> formation.baseId == unit || formation.enemyId == unit);
+  }
+
+  private boolean claimed(int cell) {
+    for (int i = 0; i < claims; i++)
+      if (claimCells[i] == cell)
+        return true;
+    return false;
+  }
+
+  private Formation formation(Unit base, Unit _base) {
+    for (int i = 0; i < formations.size(); i++) {
+      Formation formation = formations.get(i);
+      if (formation.baseId != base.getID() || formation.enemyId != _base.getID())
+        continue;
+      if (formation.matches(base, _base))
+        return formation;
+      formations.remove(i);
+      break;
+    }
+    Formation formation = new Formation(base, _base);
+    formations.add(formation);
+    return formation;
+  }
+
+  private class Formation {
+    final long baseId, enemyId;
+    final int baseX, baseY, enemyX, enemyY;
+    final int[] cells;
+
+    Formation(Unit base, Unit _base) {
+      baseId = base.getID();
+      enemyId = _base.getID();
+      baseX = base.getX();
+      baseY = base.getY();
+      enemyX = _base.getX();
+      enemyY = _base.getY();
+
+      // Every on-map cell exactly radius moves from the base, columns first
+      int[] found = new int[Math.max(1, 4 * radius)];
+      int count = 0;
+      for (int x = Math.max(0, baseX - radius); x <= Math.min(width - 1, baseX + radius); x++) {
+        for (int y = Math.max(0, baseY - radius); y <= Math.min(height - 1, baseY + radius); y++) {
+          if (Math.abs(x - baseX) + Math.abs(y - baseY) == radius)
+            found[count++] = x + y * width;
+        }
+      }
+
+      // Stable insertion sort by distance to the enemy base
+      for (int i = 1; i < count; i++) {
+        int cell = found[i];
+        int dist = enemyDistance(cell);
+        int j = i - 1;
+        for (; j >= 0 && enemyDistance(found[j]) > dist; j--)
+          found[j + 1] = found[j];
+        found[j + 1] = cell;
+      }
+      cells = Arrays.copyOf(found, count);
+    }
+
+    boolean matches(Unit base, Unit _base) {
+      return base.getX() == baseX && base.getY() == baseY && _base.getX() == enemyX && _base.getY() == enemyY;
+    }
+
+    private int enemyDistance(int cell) {
+      return Math.abs(cell % width - enemyX) + Math.abs(cell / width - enemyY);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package DinkleBot;
+
+import rts.units.Unit;
+
+/*
+ * Decides which idle units get a decision this frame.
+ *
+ * Role passes ask admit() before planning each idle unit. While the frame is within its
+ * decision time every unit is admitted; after that units are deferred to the next frame.
+ * Each role pass serves its units deferred last frame (wasDeferred) before the rest, so a
+ * big army that goes idle at once is worked through in turns instead of the same units
+ * missing out every frame.
+ */
+class FrameBudget {
+  // Deferred last frame and waiting for their turn, and deferred during this frame
+  private UnitIdSet carried = new UnitIdSet();
+  private UnitIdSet deferring = new UnitIdSet();
+  // Planned this frame, so a unit served ahead of its turn isn't planned a second time
+  private final UnitIdSet handled = new UnitIdSet();
+  private long deadline;
+  private boolean unlimited;
+  private int deferredThisFrame;
+  private long deferredTotal;
+
+  // A budget of zero or less means no limit
+  void startFrame(long budgetNanos) {
+    unlimited = budgetNanos <= 0;
+    deadline = System.nanoTime() + budgetNanos;
+    handled.clear();
+    deferring.clear();
+    deferredThisFrame = 0;
+  }
+
+  void endFrame() {
+    UnitIdSet swap = carried;
+    carried = deferring;
+    deferring = swap;
+  }
+
+  boolean hasCarryOver() {
+    return !unlimited && !carried.isEmpty();
+  }
+
+  boolean wasDeferred(Unit unit) {
+    return carried.contains(unit.getID());
+  }
+
+  boolean admit(Unit unit) {
+    if (unlimited)
+      return true;
+    long id = unit.getID();
+    if (handled.contains(id))
+      return false;
+    if (System.nanoTime() > deadline) {
+      if (deferring.add(id)) {
+        deferredThisFrame++;
+        deferredTotal++;
+      }
+      return false;
+    }
+    handled.add(id);
+    return true;
+  }
+
+  void reset() {
+    carried.clear();
+    deferring.clear();
+    handled.clear();
+    deferredThisFrame = 0;
+    deferredTotal = 0;
+  }
+
+  int deferredThisFrame() {
+    return deferredThisFrame;
+  }
+
+  long deferredTotal() {
+    return deferredTotal;
+  }
+}
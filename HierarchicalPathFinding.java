@@ -0,0 +1,512 @@
+package DinkleBot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/*
+ * PathFinding for big maps that plans over a coarse graph of map clusters and only searches
+ * cell by cell around the unit (HPA*).
+ *
+ * The map is cut into CLUSTER x CLUSTER clusters. Every run of cells open on both sides of
+ * the border between two clusters is an entrance, with a node on each side at the middle
+ * of the run, and each cluster keeps the walking distance between its own nodes. All of
+ * this comes from the static obstacles (walls and units that can't move); when one appears
+ * or disappears only the cluster it is in and the four next to it are worked out again.
+ *
+ * A unit whose goal is further away than the next cluster gets a route of nodes from an A*
+ * over that graph, kept until the obstacles change or the goal moves to another cluster.
+ * The unit heads for the furthest node of the route in the clusters around it that it can
+ * walk to, and each step is a breadth-first search over the 3 x 3 clusters around that
+ * node, with every unit counted as an obstacle (a node with a unit on it is walked up to).
+ * If units wall the way off, the search looks one cluster further out, and a unit pushed
+ * well away from its route gets a new one. Goals in the next cluster are searched for
+ * directly the same way. Whatever this can't answer (no route, the way blocked by units,
+ * already in range) goes to the fallback search.
+ */
+public class HierarchicalPathFinding extends PathFinding {
+  private static final int CLUSTER = 8;
+  // A border of CLUSTER cells has at most CLUSTER / 2 runs, and a cluster has four borders
+  private static final int MAX_NODES = 2 * CLUSTER;
+  private static final int MAX_ROUTES = 256;
+  private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private final PathFinding fallback;
+
+  // Static obstacles and occupied cells as of the last frame we saw
+  private final StaticObstacles obstacles = new StaticObstacles();
+  private int width, height;
+  private boolean[] occupied = new boolean[0];
+  private int version;
+
+  // Per cluster: its entrance nodes, the cell across the border from each, and the walking
+  // distance from node i to node j at [i * nodes + j]
+  private int clustersX, clustersY;
+  private int[] nodeCount = new int[0];
+  private int[][] nodeCell = new int[0][];
+  private int[][] nodePartner = new int[0][];
+  private int[][] nodeDistance = new int[0][];
+  private boolean[] dirty = new boolean[0];
+
+  // Unit ID -> route it is following, least recently used first
+  private final LinkedHashMap<Long, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+
+  // Search buffers: cell distances for the breadth-first searches, and the graph search's
+  // cost and parent per node (node = cluster * MAX_NODES + index, plus one for the goal)
+  private int[] distance = new int[0];
+  private int[] sources = new int[0];
+  // Breadth-first queue; every cell goes in at most once per search
+  private int[] queue = new int[0];
+  private final ReservedCells reserved = new ReservedCells();
+  private int[] cost = new int[0];
+  private int[] parent = new int[0];
+  private int[] searched = new int[0];
+  private int search;
+  private final PriorityQueue<Long> open = new PriorityQueue<>();
+
+  private static class Route {
+    int goalCluster, range, version;
+    int[] cells;
+    // The node the unit is heading for
+    int aim;
+  }
+
+  public HierarchicalPathFinding(PathFinding fallback) {
+    this.fallback = fallback;
+  }
+
+  public PathFinding getFallback() {
+    return fallback;
+  }
+
+  @Override
+  public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    return fallback.pathExists(start, targetpos, gs, ru);
+  }
+
+  @Override
+  public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    return fallback.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, 0, gs, ru);
+    return step != null ? step : fallback.findPath(start, targetpos, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, range, gs, ru);
+    return step != null ? step : fallback.findPathToPositionInRange(start, targetpos, range, gs, ru);
+  }
+
+  @Override
+  public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+    UnitAction step = step(start, targetpos, 1, gs, ru);
+    return step != null ? step : fallback.findPathToAdjacentPosition(start, targetpos, gs, ru);
+  }
+
+  private UnitAction step(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+    refresh(gs);
+    int from = start.getX() + start.getY() * width;
+    if (targetpos < 0 || targetpos >= width * height || inRange(from, targetpos, range))
+      return null;
+    int fromCluster = clusterOf(from);
+    int goalCluster = clusterOf(targetpos);
+    reserved.load(ru, width * height);
+    if (near(fromCluster, goalCluster))
+      return localStep(from, targetpos, range);
+
+    Route route = routes.get(start.getID());
+    boolean stale = route == null || route.version != version || route.goalCluster != goalCluster || route.range != range;
+    if (stale || clusterDistance(fromCluster, clusterOf(route.cells[route.aim])) > 2) {
+      // New goal, new obstacles, or pushed off the route
+      route = plan(from, targetpos, range);
+      if (route == null) {
+        routes.remove(start.getID());
+        return null;
+      }
+      remember(start.getID(), route);
+    }
+
+    // Nodes the unit has reached are passed; a node with a unit on it counts as reached from
+    // next to it
+    int last = route.cells.length - 1;
+    while (route.aim < last && reached(from, route.cells[route.aim]))
+      route.aim++;
+    // Head for the furthest node in the clusters around the unit that can be walked to from
+    // here, skipping the ones before it. The aim only moves forward, so the unit can't be
+    // pulled back and forth between two nodes
+    int furthest = route.aim;
+    while (furthest < last && near(fromCluster, clusterOf(route.cells[furthest + 1])))
+      furthest++;
+    for (int k = furthest; k >= route.aim; k--) {
+      int node = route.cells[k];
+      UnitAction action = localStep(from, node, occupied[node] ? 1 : 0, 1);
+      if (action != null) {
+        route.aim = k;
+        return action;
+      }
+    }
+    // Walled in by units: look further around the node being headed for
+    int node = route.cells[route.aim];
+    UnitAction action = localStep(from, node, occupied[node] ? 1 : 0, 2);
+    if (action == null)
+      routes.remove(start.getID());
+    return action;
+  }
+
+  /*
+   * The move toward the goal found by searching the clusters around the goal's (which take
+   * in the unit's), or null. The search area only changes with the goal, so a unit closing
+   * in on the same goal keeps to one distance field and always gets nearer. If units wall
+   * off the way inside that area, the clusters one further out are searched as well.
+   */
+  private UnitAction localStep(int from, int goal, int range) {
+    UnitAction action = localStep(from, goal, range, 1);
+    return action != null ? action : localStep(from, goal, range, 2);
+  }
+
+  private UnitAction localStep(int from, int goal, int range, int margin) {
+    int goalCluster = clusterOf(goal);
+    int cx = goalCluster % clustersX;
+    int cy = goalCluster / clustersX;
+    int x0 = Math.max(0, cx - margin) * CLUSTER;
+    int y0 = Math.max(0, cy - margin) * CLUSTER;
+    int x1 = Math.min(width, (cx + margin + 1) * CLUSTER) - 1;
+    int y1 = Math.min(height, (cy + margin + 1) * CLUSTER) - 1;
+
+    int count = inRangeCells(goal, range, x0, y0, x1, y1, true);
+    walk(x0, y0, x1, y1, count, true);
+
+    int fromX = from % width;
+    int fromY = from / width;
+    int bestDirection = -1;
+    int bestDist = UNREACHABLE;
+    for (int direction = 0; direction < 4; direction++) {
+      int x = fromX + UnitAction.DIRECTION_OFFX[direction];
+      int y = fromY + UnitAction.DIRECTION_OFFY[direction];
+      if (x < x0 || y < y0 || x > x1 || y > y1)
+        continue;
+      int cell = x + y * width;
+      if (distance[cell] >= bestDist)
+        continue;
+      if (reserved.contains(cell))
+        continue;
+      bestDirection = direction;
+      bestDist = distance[cell];
+    }
+    return bestDirection < 0 ? null : new UnitAction(UnitAction.TYPE_MOVE, bestDirection);
+  }
+
+  // Route of nodes from the unit's cluster to the goal's, by A* over the entrance graph
+  private Route plan(int from, int goal, int range) {
+    int fromCluster = clusterOf(from);
+    int goalCluster = clusterOf(goal);
+    int goalNode = clustersX * clustersY * MAX_NODES;
+    search++;
+
+    // Walking distance from the goal to each node of its cluster
+    int[] goalDistance = new int[nodeCount[goalCluster]];
+    int count = inRangeCells(goal, range, clusterX0(goalCluster), clusterY0(goalCluster), clusterX1(goalCluster), clusterY1(goalCluster), false);
+    if (count == 0)
+      return null;
+    walk(clusterX0(goalCluster), clusterY0(goalCluster), clusterX1(goalCluster), clusterY1(goalCluster), count, false);
+    for (int i = 0; i < goalDistance.length; i++)
+      goalDistance[i] = distance[nodeCell[goalCluster][i]];
+
+    // Seeded with the unit's walking distance to each node of its own cluster
+    sources[0] = from;
+    walk(clusterX0(fromCluster), clusterY0(fromCluster), clusterX1(fromCluster), clusterY1(fromCluster), 1, false);
+    open.clear();
+    for (int i = 0; i < nodeCount[fromCluster]; i++) {
+      int dist = distance[nodeCell[fromCluster][i]];
+      if (dist != UNREACHABLE)
+        relax(fromCluster * MAX_NODES + i, -1, dist, goal, range);
+    }
+
+    while (!open.isEmpty()) {
+      long entry = open.poll();
+      int node = (int) entry;
+      if (node == goalNode)
+        return route(goalNode, goalCluster, range);
+      int nodeCost = cost[node];
+      if ((entry >>> 32) != nodeCost + heuristic(node, goal, range))
+        continue;
+      int cluster = node / MAX_NODES;
+      int i = node % MAX_NODES;
+      int n = nodeCount[cluster];
+
+      if (cluster == goalCluster && goalDistance[i] != UNREACHABLE)
+        relax(goalNode, node, nodeCost + goalDistance[i], goal, range);
+      for (int j = 0; j < n; j++) {
+        int dist = nodeDistance[cluster][i * n + j];
+        if (j != i && dist != UNREACHABLE)
+          relax(cluster * MAX_NODES + j, node, nodeCost + dist, goal, range);
+      }
+      int across = partnerNode(cluster, i);
+      if (across >= 0)
+        relax(across, node, nodeCost + 1, goal, range);
+    }
+    return null;
+  }
+
+  private void relax(int node, int from, int newCost, int goal, int range) {
+    if (searched[node] == search && cost[node] <= newCost)
+      return;
+    searched[node] = search;
+    cost[node] = newCost;
+    parent[node] = from;
+    open.add(((long) (newCost + heuristic(node, goal, range)) << 32) | node);
+  }
+
+  // Walking distance to the goal with no obstacles, less what the range can save (a cell in
+  // range can be up to twice the range away on foot); zero for the goal itself
+  private int heuristic(int node, int goal, int range) {
+    if (node == clustersX * clustersY * MAX_NODES)
+      return 0;
+    int cell = nodeCell[node / MAX_NODES][node % MAX_NODES];
+    int dist = Math.abs(cell % width - goal % width) + Math.abs(cell / width - goal / width);
+    return Math.max(0, dist - 2 * range);
+  }
+
+  private Route route(int goalNode, int goalCluster, int range) {
+    int length = 0;
+    for (int node = parent[goalNode]; node >= 0; node = parent[node])
+      length++;
+    Route route = new Route();
+    route.cells = new int[length];
+    for (int node = parent[goalNode], k = length - 1; node >= 0; node = parent[node], k--)
+      route.cells[k] = nodeCell[node / MAX_NODES][node % MAX_NODES];
+    route.goalCluster = goalCluster;
+    route.range = range;
+    route.version = version;
+    return route;
+  }
+
+  private void remember(long unit, Route route) {
+    if (routes.size() >= MAX_ROUTES && !routes.containsKey(unit)) {
+      Iterator<Long> eldest = routes.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+    routes.put(unit, route);
+  }
+
+  // The node on the other side of node i's entrance
+  private int partnerNode(int cluster, int i) {
+    int cell = nodeCell[cluster][i];
+    int partner = nodePartner[cluster][i];
+    int other = clusterOf(partner);
+    for (int j = 0; j < nodeCount[other]; j++)
+      if (nodeCell[other][j] == partner && nodePartner[other][j] == cell)
+        return other * MAX_NODES + j;
+    return -1;
+  }
+
+  // Puts the open cells of the rectangle within range of the goal (squared, as in A*) into sources
+  private int inRangeCells(int goal, int range, int x0, int y0, int x1, int y1, boolean avoidUnits) {
+    int goalX = goal % width;
+    int goalY = goal / width;
+    int count = 0;
+    for (int y = Math.max(y0, goalY - range); y <= Math.min(y1, goalY + range); y++) {
+      for (int x = Math.max(x0, goalX - range); x <= Math.min(x1, goalX + range); x++) {
+        int cell = x + y * width;
+        if ((x - goalX) * (x - goalX) + (y - goalY) * (y - goalY) <= range * range && open(cell, avoidUnits))
+          sources[count++] = cell;
+      }
+    }
+    return count;
+  }
+
+  // Breadth-first distances from the first count sources over the open cells of the rectangle
+  private void walk(int x0, int y0, int x1, int y1, int count, boolean avoidUnits) {
+    for (int y = y0; y <= y1; y++)
+      Arrays.fill(distance, x0 + y * width, x1 + y * width + 1, UNREACHABLE);
+    int head = 0, tail = 0;
+    for (int s = 0; s < count; s++) {
+      distance[sources[s]] = 0;
+      queue[tail++] = sources[s];
+    }
+    while (head < tail) {
+      int cell = queue[head++];
+      int x = cell % width;
+      int y = cell / width;
+      for (int direction = 0; direction < 4; direction++) {
+        int nx = x + UnitAction.DIRECTION_OFFX[direction];
+        int ny = y + UnitAction.DIRECTION_OFFY[direction];
+        if (nx < x0 || ny < y0 || nx > x1 || ny > y1)
+          continue;
+        int next = nx + ny * width;
+        if (distance[next] != UNREACHABLE || !open(next, avoidUnits))
+          continue;
+        distance[next] = distance[cell] + 1;
+        queue[tail++] = next;
+      }
+    }
+  }
+
+  private boolean open(int cell, boolean avoidUnits) {
+    return !obstacles.blocked(cell) && !(avoidUnits && occupied[cell]);
+  }
+
+  // Once per frame, note where every unit stands and redo the clusters whose obstacles changed
+  private void refresh(GameState gs) {
+    if (!obstacles.refresh(gs))
+      return;
+    if (obstacles.resized())
+      resize(obstacles.width(), obstacles.height());
+    Arrays.fill(occupied, false);
+    List<Unit> units = gs.getPhysicalGameState().getUnits();
+    for (int i = 0; i < units.size(); i++) {
+      Unit unit = units.get(i);
+      occupied[unit.getX() + unit.getY() * width] = true;
+    }
+
+    if (obstacles.resized()) {
+      Arrays.fill(dirty, true);
+    } else if (obstacles.changed()) {
+      for (int cell = 0; cell < width * height; cell++)
+        if (obstacles.blocked(cell) != obstacles.wasBlocked(cell))
+          markDirty(clusterOf(cell));
+    }
+
+    boolean changed = false;
+    for (int c = 0; c < dirty.length; c++) {
+      if (dirty[c]) {
+        buildCluster(c);
+        dirty[c] = false;
+        changed = true;
+      }
+    }
+    if (changed)
+      version++;
+  }
+
+  private void resize(int w, int h) {
+    width = w;
+    height = h;
+    int cells = w * h;
+    occupied = new boolean[cells];
+    distance = new int[cells];
+    sources = new int[cells];
+    queue = new int[cells];
+    clustersX = (w + CLUSTER - 1) / CLUSTER;
+    clustersY = (h + CLUSTER - 1) / CLUSTER;
+    int clusters = clustersX * clustersY;
+    nodeCount = new int[clusters];
+    nodeCell = new int[clusters][MAX_NODES];
+    nodePartner = new int[clusters][MAX_NODES];
+    nodeDistance = new int[clusters][0];
+    dirty = new boolean[clusters];
+    cost = new int[clusters * MAX_NODES + 1];
+    parent = new int[clusters * MAX_NODES + 1];
+    searched = new int[clusters * MAX_NODES + 1];
+    routes.clear();
+  }
+
+  // The cluster and the four sharing a border with it
+  private void markDirty(int cluster) {
+    int cx = cluster % clustersX;
+    int cy = cluster / clustersX;
+    dirty[cluster] = true;
+    if (cx > 0)
+      dirty[cluster - 1] = true;
+    if (cx < clustersX - 1)
+      dirty[cluster + 1] = true;
+    if (cy > 0)
+      dirty[cluster - clustersX] = true;
+    if (cy < clustersY - 1)
+      dirty[cluster + clustersX] = true;
+  }
+
+  private void buildCluster(int c) {
+    int x0 = clusterX0(c), y0 = clusterY0(c), x1 = clusterX1(c), y1 = clusterY1(c);
+    nodeCount[c] = 0;
+    if (y0 > 0)
+      addEntrances(c, x0, y0, 1, 0, x1 - x0 + 1, -width);
+    if (y1 < height - 1)
+      addEntrances(c, x0, y1, 1, 0, x1 - x0 + 1, width);
+    if (x0 > 0)
+      addEntrances(c, x0, y0, 0, 1, y1 - y0 + 1, -1);
+    if (x1 < width - 1)
+      addEntrances(c, x1, y0, 0, 1, y1 - y0 + 1, 1);
+
+    int n = nodeCount[c];
+    nodeDistance[c] = new int[n * n];
+    for (int i = 0; i < n; i++) {
+      sources[0] = nodeCell[c][i];
+      walk(x0, y0, x1, y1, 1, false);
+      for (int j = 0; j < n; j++)
+        nodeDistance[c][i * n + j] = distance[nodeCell[c][j]];
+    }
+  }
+
+  // One node at the middle of every run of border cells open on both sides
+  private void addEntrances(int c, int x, int y, int dx, int dy, int length, int across) {
+    int runStart = -1;
+    for (int k = 0; k <= length; k++) {
+      int cell = x + k * dx + (y + k * dy) * width;
+      boolean passable = k < length && !obstacles.blocked(cell) && !obstacles.blocked(cell + across);
+      if (passable && runStart < 0)
+        runStart = k;
+      if (!passable && runStart >= 0) {
+        int middle = (runStart + k - 1) / 2;
+        int node = x + middle * dx + (y + middle * dy) * width;
+        nodeCell[c][nodeCount[c]] = node;
+        nodePartner[c][nodeCount[c]] = node + across;
+        nodeCount[c]++;
+        runStart = -1;
+      }
+    }
+  }
+
+  // Clusters apart, counting diagonal steps as one
+  private int clusterDistance(int a, int b) {
+    return Math.max(Math.abs(a % clustersX - b % clustersX), Math.abs(a / clustersX - b / clustersX));
+  }
+
+  private boolean reached(int from, int node) {
+    return from == node || (occupied[node] && Math.abs(from % width - node % width) + Math.abs(from / width - node / width) == 1);
+  }
+
+  private boolean inRange(int cell, int goal, int range) {
+    int dx = cell % width - goal % width;
+    int dy = cell / width - goal / width;
+    return dx * dx + dy * dy <= range * range;
+  }
+
+  // Whether two clusters are the same or touch, including diagonally
+  private boolean near(int a, int b) {
+    return clusterDistance(a, b) <= 1;
+  }
+
+  private int clusterOf(int cell) {
+    return (cell / width) / CLUSTER * clustersX + (cell % width) / CLUSTER;
+  }
+
+  private int clusterX0(int c) {
+    return c % clustersX * CLUSTER;
+  }
+
+  private int clusterY0(int c) {
+    return c / clustersX * CLUSTER;
+  }
+
+  private int clusterX1(int c) {
+    return Math.min(width, clusterX0(c) + CLUSTER) - 1;
+  }
+
+  private int clusterY1(int c) {
+    return Math.min(height, clusterY0(c) + CLUSTER) - 1;
+  }
+}
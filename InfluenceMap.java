@@ -0,0 +1,157 @@
+package DinkleBot;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/*
+ * Per-cell damage potential of both sides, kept up to date from the frame's births, deaths
+ * and moves instead of being recomputed.
+ *
+ * threat is the enemy damage that can land on a cell with their next action: every enemy
+ * that can attack adds its maxDamage to each cell within its attack range of where it
+ * stands, or of a cell one move away if it can move. strength is the same for our units.
+ *
+ * Next to those it keeps the Manhattan distance from every cell to the closest enemy unit,
+ * which answers "is any enemy within d of here" in O(1). That field is only recomputed when
+ * it is queried after enemies have come, gone or moved.
+ */
+class InfluenceMap {
+  private static final int FAR = Integer.MAX_VALUE / 2;
+
+  private int width, height;
+  private int player = -1;
+  private int[] threat = new int[0];
+  private int[] strength = new int[0];
+  // Enemy units per cell, and the distance field built from it
+  private int[] enemies = new int[0];
+  private int[] enemyDistance = new int[0];
+  private boolean enemyDistanceStale;
+  // Unit ID -> cell it was stamped at, so it can be taken off again after it moved or died
+  private final UnitIdMap stamped = new UnitIdMap(128);
+
+  // Start over from every unit on the board, as seen by the given player
+  void rebuild(int width, int height, List<Unit> boardUnits, int player) {
+    if (width != this.width || height != this.height) {
+      this.width = width;
+      this.height = height;
+      threat = new int[width * height];
+      strength = new int[width * height];
+      enemies = new int[width * height];
+      enemyDistance = new int[width * height];
+    } else {
+      Arrays.fill(threat, 0);
+      Arrays.fill(strength, 0);
+      Arrays.fill(enemies, 0);
+    }
+    this.player = player;
+    stamped.clear();
+    enemyDistanceStale = true;
+    for (int i = 0; i < boardUnits.size(); i++)
+      add(boardUnits.get(i));
+  }
+
+  void add(Unit unit) {
+    if (unit.getPlayer() < 0)
+      return;
+    int cell = unit.getX() + unit.getY() * width;
+    stamped.put(unit.getID(), cell);
+    stamp(unit, cell, 1);
+  }
+
+  void remove(Unit unit) {
+    int cell = stamped.remove(unit.getID());
+    if (cell >= 0)
+      stamp(unit, cell, -1);
+  }
+
+  void move(Unit unit) {
+    remove(unit);
+    add(unit);
+  }
+
+  int threat(int x, int y) {
+    return threat[x + y * width];
+  }
+
+  int threat(Unit unit) {
+    return threat(unit.getX(), unit.getY());
+  }
+
+  int strength(int x, int y) {
+    return strength[x + y * width];
+  }
+
+  int strength(Unit unit) {
+    return strength(unit.getX(), unit.getY());
+  }
+
+  // Manhattan distance to the closest enemy unit, or a huge number if there is none
+  int enemyDistance(Unit unit) {
+    if (enemyDistanceStale)
+      computeEnemyDistance();
+    return enemyDistance[unit.getX() + unit.getY() * width];
+  }
+
+  private void stamp(Unit unit, int cell, int sign) {
+    UnitType type = unit.getType();
+    boolean enemy = unit.getPlayer() != player;
+    if (enemy) {
+      enemies[cell] += sign;
+      enemyDistanceStale = true;
+    }
+    if (!type.canAttack)
+      return;
+
+    int[] layer = enemy ? threat : strength;
+    int damage = sign * type.maxDamage;
+    int range = type.attackRange;
+    int reach = range + (type.canMove ? 1 : 0);
+    int x0 = cell % width;
+    int y0 = cell / width;
+    for (int y = Math.max(0, y0 - reach); y <= Math.min(height - 1, y0 + reach); y++)
+      for (int x = Math.max(0, x0 - reach); x <= Math.min(width - 1, x0 + reach); x++)
+        if (canHit(x - x0, y - y0, range, type.canMove))
+          layer[x + y * width] += damage;
+  }
+
+  // Whether a cell at (dx, dy) is in range from the unit's cell, or from one move away
+  private static boolean canHit(int dx, int dy, int range, boolean canMove) {
+    int r2 = range * range;
+    if (dx * dx + dy * dy <= r2)
+      return true;
+    if (!canMove)
+      return false;
+    return (dx - 1) * (dx - 1) + dy * dy <= r2 || (dx + 1) * (dx + 1) + dy * dy <= r2
+        || dx * dx + (dy - 1) * (dy - 1) <= r2 || dx * dx + (dy + 1) * (dy + 1) <= r2;
+  }
+
+  // Two-pass Manhattan distance transform over the enemy cells
+  private void computeEnemyDistance() {
+    enemyDistanceStale = false;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int cell = x + y * width;
+        int dist = enemies[cell] > 0 ? 0 : FAR;
+        if (x > 0)
+          dist = Math.min(dist, enemyDistance[cell - 1] + 1);
+        if (y > 0)
+          dist = Math.min(dist, enemyDistance[cell - width] + 1);
+        enemyDistance[cell] = dist;
+      }
+    }
+    for (int y = height - 1; y >= 0; y--) {
+      for (int x = width - 1; x >= 0; x--) {
+        int cell = x + y * width;
+        int dist = enemyDistance[cell];
+        if (x < width - 1)
+          dist = Math.min(dist, enemyDistance[cell + 1] + 1);
+        if (y < height - 1)
+          dist = Math.min(dist, enemyDistance[cell + width] + 1);
+        enemyDistance[cell] = dist;
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package DinkleBot;
+
+import java.util.Arrays;
+
+import rts.units.Unit;
+
+/*
+ * What each unit was last told to do, kept across frames so a unit that goes idle between
+ * the steps of a long action repeats it instead of being planned from scratch.
+ *
+ * An intent is a harvest (resource and base), a defender slot (cell, base and enemy base)
+ * or an attack (target). It is dropped when the unit or any unit it names dies, which
+ * covers a dead target, a lost base and a depleted resource; the roles check the rest
+ * (their role, an occupied slot, ...) when they use it. Units are held by reference, so
+ * everything is dropped when the tracker can't match this frame's units to the last.
+ */
+class IntentCache {
+  static final int NONE = -1, HARVEST = 0, DEFEND = 1, ATTACK = 2;
+
+  // Unit ID -> index into the arrays below
+  private final UnitIdMap index = new UnitIdMap();
+  private long[] owners = new long[8];
+  private int[] kinds = new int[8];
+  private Unit[] targets = new Unit[8];
+  private Unit[] bases = new Unit[8];
+  private Unit[] enemyBases = new Unit[8];
+  private int[] cells = new int[8];
+  private int count;
+
+  int kind(Unit unit) {
+    int i = index.get(unit.getID());
+    return i < 0 ? NONE : kinds[i];
+  }
+
+  // The resource of a harvest or the target of an attack
+  Unit target(Unit unit) {
+    return targets[index.get(unit.getID())];
+  }
+
+  Unit base(Unit unit) {
+    return bases[index.get(unit.getID())];
+  }
+
+  // The slot of a defender, as x + y * width
+  int cell(Unit unit) {
+    return cells[index.get(unit.getID())];
+  }
+
+  void harvest(Unit worker, Unit resource, Unit base) {
+    put(worker, HARVEST, resource, base, null, -1);
+  }
+
+  void defend(Unit light, int cell, Unit base, Unit _base) {
+    put(light, DEFEND, null, base, _base, cell);
+  }
+
+  void attack(Unit unit, Unit target) {
+    put(unit, ATTACK, target, null, null, -1);
+  }
+
+  void forget(Unit unit) {
+    int i = index.remove(unit.getID());
+    if (i >= 0)
+      removeAt(i);
+  }
+
+  // A unit died: drop its own intent and every intent naming it
+  void forget(long unit) {
+    for (int i = count - 1; i >= 0; i--) {
+      if (owners[i] == unit || named(targets[i], unit) || named(bases[i], unit) || named(enemyBases[i], unit)) {
+        index.remove(owners[i]);
+        removeAt(i);
+      }
+    }
+  }
+
+  // Drops every intent of one kind, e.g. harvests once a new base changes which patches to use
+  void forgetAll(int kind) {
+    for (int i = count - 1; i >= 0; i--) {
+      if (kinds[i] == kind) {
+        index.remove(owners[i]);
+        removeAt(i);
+      }
+    }
+  }
+
+  void clear() {
+    index.clear();
+    Arrays.fill(targets, 0, count, null);
+    Arrays.fill(bases, 0, count, null);
+    Arrays.fill(enemyBases, 0, count, null);
+    count = 0;
+  }
+
+  private void put(Unit unit, int kind, Unit target, Unit base, Unit enemyBase, int cell) {
+    int i = index.get(unit.getID());
+    if (i < 0) {
+      if (count == owners.length) {
+        owners = Arrays.copyOf(owners, count * 2);
+        kinds = Arrays.copyOf(kinds, count * 2);
+        targets = Arrays.copyOf(targets, count * 2);
+        bases = Arrays.copyOf(bases, count * 2);
+        enemyBases = Arrays.copyOf(enemyBases, count * 2);
+        cells = Arrays.copyOf(cells, count * 2);
+      }
+      i = count++;
+      owners[i] = unit.getID();
+      index.put(unit.getID(), i);
+    }
+    kinds[i] = kind;
+    targets[i] = target;
+    bases[i] = base;
+    enemyBases[i] = enemyBase;
+    cells[i] = cell;
+  }
+
+  // Moves the last intent into slot i; its index entry must already be gone
+  private void removeAt(int i) {
+    count--;
+    if (i != count) {
+      owners[i] = owners[count];
+      kinds[i] = kinds[count];
+      targets[i] = targets[count];
+      bases[i] = bases[count];
+      enemyBases[i] = enemyBases[count];
+      cells[i] = cells[count];
+      index.put(owners[i], i);
+    }
+    targets[count] = null;
+    bases[count] = null;
+    enemyBases[count] = null;
+  }
+
+  private static boolean named(Unit unit, long id) {
+    return unit != null && unit.getID() == id;
+  }
+}
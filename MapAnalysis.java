@@ -0,0 +1,226 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.PhysicalGameState;
+import rts.units.Unit;
+
+/*
+ * Facts about the map that don't change during a game, worked out once when the game
+ * starts (in preGameAnalysis, or on the first frame of a new map).
+ *
+ * For every starting base the walking distance (around walls, ignoring units) to every cell
+ * is kept. Those tables give the base regions, where every cell belongs to the starting
+ * base it is the shortest walk from, and the barracks sites, which face the nearest
+ * opposing start base. Sites are worked out the first time a base asks and then kept by
+ * base cell.
+ */
+class MapAnalysis {
+  private static final int MAX_START_BASES = 16;
+  static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private int width, height;
+  private boolean[] walls = new boolean[0];
+  private boolean analysed;
+
+  // Starting base b's distance to cell c is at distances[b * cells + c]
+  private int startBases;
+  private int[] startBaseCells = new int[0];
+  private int[] startBaseOwners = new int[0];
+  private int[] distances = new int[0];
+  private int[] queue = new int[0];
+
+  private int[] region = new int[0];
+  // Base cell -> chosen barracks cell, -1 until asked
+  private int[] barracksSites = new int[0];
+
+  private int diagonal;
+
+  void analyse(PhysicalGameState board) {
+    width = board.getWidth();
+    height = board.getHeight();
+    int cells = width * height;
+    walls = new boolean[cells];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        walls[x + y * width] = board.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL;
+
+    // The roles' radii are fractions of this, which they used to work out on every call
+    diagonal = (int) Math.sqrt(height * height + width * width);
+
+    List<Unit> bases = startBases(board);
+    startBases = Math.min(bases.size(), MAX_START_BASES);
+    startBaseCells = new int[startBases];
+    startBaseOwners = new int[startBases];
+    for (int b = 0; b < startBases; b++) {
+      Unit base = bases.get(b);
+      startBaseCells[b] = base.getX() + base.getY() * width;
+      startBaseOwners[b] = base.getPlayer();
+    }
+    distances = new int[startBases * cells];
+    queue = new int[cells];
+    for (int b = 0; b < startBases; b++)
+      walk(startBaseCells[b], b * cells);
+
+    divideRegions();
+
+    barracksSites = new int[cells];
+    Arrays.fill(barracksSites, -1);
+    analysed = true;
+  }
+
+  /*
+   * Whether the analysis is for this map; only worth asking when the board may have changed.
+   * The walls have to match, and at time 0 so do the bases, so a new game on the same
+   * terrain with other starting positions is analysed again. Later on bases may have been
+   * built or lost, so the walls are all that can be compared.
+   */
+  boolean matches(PhysicalGameState board, int time) {
+    if (!analysed || board.getWidth() != width || board.getHeight() != height)
+      return false;
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        if (walls[x + y * width] != (board.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL))
+          return false;
+    if (time > 0)
+      return true;
+    List<Unit> bases = startBases(board);
+    if (Math.min(bases.size(), MAX_START_BASES) != startBases)
+      return false;
+    for (int b = 0; b < startBases; b++) {
+      Unit base = bases.get(b);
+      if (startBaseCells[b] != base.getX() + base.getY() * width || startBaseOwners[b] != base.getPlayer())
+        return false;
+    }
+    return true;
+  }
+
+  private static List<Unit> startBases(PhysicalGameState board) {
+    List<Unit> bases = new ArrayList<>();
+    for (Unit unit : board.getUnits())
+      if (unit.getType().isStockpile && unit.getPlayer() >= 0)
+        bases.add(unit);
+    return bases;
+  }
+
+  void clear() {
+    analysed = false;
+  }
+
+  // Length of the map's diagonal, rounded down
+  int diagonal() {
+    return diagonal;
+  }
+
+  // Index of the starting base whose region the unit stands in, or -1 if no base can reach it
+  int region(Unit unit) {
+    return region(unit.getX(), unit.getY());
+  }
+
+  int region(int x, int y) {
+    return region[x + y * width];
+  }
+
+  // Every cell's region, by x + y * width, or null before the first analysis. Each analysis
+  // makes a new table and nothing writes it afterwards, so other threads may keep reading it
+  int[] regions() {
+    return analysed ? region : null;
+  }
+
+  /*
+   * The cell diagonal to the base that is closest to the nearest opposing start base (by
+   * walking distance), skipping walls. With no opposing base or no open corner it is (0, 0),
+   * as before.
+   */
+  int[] barracksSite(Unit base) {
+    int baseCell = base.getX() + base.getY() * width;
+    if (barracksSites[baseCell] < 0)
+      barracksSites[baseCell] = chooseBarracksSite(base);
+    int[] position = {barracksSites[baseCell] % width, barracksSites[baseCell] / width};
+    return position;
+  }
+
+  private int chooseBarracksSite(Unit base) {
+    int baseCell = base.getX() + base.getY() * width;
+    int targetX = 0;
+    int targetY = 0;
+    int closest = UNREACHABLE;
+    for (int b = 0; b < startBases; b++) {
+      int dist = distances[b * width * height + baseCell];
+      if (startBaseOwners[b] != base.getPlayer() && dist < closest) {
+        closest = dist;
+        targetX = startBaseCells[b] % width;
+        targetY = startBaseCells[b] / width;
+      }
+    }
+
+    int site = 0;
+    int dist = height + width;
+    for (int dx = -1; dx <= 1; dx += 2) {
+      for (int dy = -1; dy <= 1; dy += 2) {
+        int x = base.getX() + dx;
+        int y = base.getY() + dy;
+        if (x < 0 || x >= width || y < 0 || y >= height || walls[x + y * width])
+          continue;
+        int newDist = Math.abs(x - targetX) + Math.abs(y - targetY);
+        if (newDist < dist) {
+          site = x + y * width;
+          dist = newDist;
+        }
+      }
+    }
+    return site;
+  }
+
+  // Breadth-first walk around walls from one cell, into distances at offset
+  private void walk(int from, int offset) {
+    int cells = width * height;
+    Arrays.fill(distances, offset, offset + cells, UNREACHABLE);
+    int head = 0, tail = 0;
+    distances[offset + from] = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      int cell = queue[head++];
+      int x = cell % width;
+      int y = cell / width;
+      int next = distances[offset + cell] + 1;
+      if (x > 0)
+        tail = step(cell - 1, next, offset, tail);
+      if (x < width - 1)
+        tail = step(cell + 1, next, offset, tail);
+      if (y > 0)
+        tail = step(cell - width, next, offset, tail);
+      if (y < height - 1)
+        tail = step(cell + width, next, offset, tail);
+    }
+  }
+
+  // Queues the cell at tail if it's open and not reached yet; returns the new tail
+  private int step(int cell, int dist, int offset, int tail) {
+    if (walls[cell] || distances[offset + cell] != UNREACHABLE)
+      return tail;
+    distances[offset + cell] = dist;
+    queue[tail] = cell;
+    return tail + 1;
+  }
+
+  // Every cell goes to the starting base with the shortest walk, ties to the earlier base
+  private void divideRegions() {
+    int cells = width * height;
+    region = new int[cells];
+    for (int c = 0; c < cells; c++) {
+      int best = -1;
+      int bestDist = UNREACHABLE;
+      for (int b = 0; b < startBases; b++) {
+        int dist = distances[b * cells + c];
+        if (dist < bestDist) {
+          best = b;
+          bestDist = dist;
+        }
+      }
+      region[c] = best;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package DinkleBot;
+
+/*
+ * Tracks the enemy's army mix over the game and keeps a production plan that counters it.
+ *
+ * The mix is the share of enemy lights, heavies and rangers (and workers, while the enemy
+ * has no barracks and its workers are all the army it has), smoothed over frames. Each of
+ * our types is scored by the share of what it counters: heavies out-trade lights, rangers
+ * kite heavies, lights run down rangers and workers. The plan is our three types in score
+ * order, ties going to the usual ranged, heavy, light order, and it is only worked out
+ * again once the mix has shifted by REPLAN_SHIFT since the last plan.
+ */
+class OpponentModel {
+  static final int LIGHT = 0, HEAVY = 1, RANGED = 2;
+
+  // Weight of the newest frame in the smoothed mix
+  private static final double SMOOTHING = 0.05;
+  // Total change across the shares that makes the plan worth revisiting
+  private static final double REPLAN_SHIFT = 0.2;
+  private static final int[] DEFAULT_PLAN = {RANGED, HEAVY, LIGHT};
+
+  // Smoothed shares of enemy workers, lights, heavies and rangers, and the shares the plan is for
+  private final double[] mix = new double[4];
+  private final double[] plannedMix = new double[4];
+  private boolean observed;
+  private final int[] plan = DEFAULT_PLAN.clone();
+  private int observedTime = -1;
+
+  // Once per frame; workers only count while the enemy has no barracks
+  void observe(int time, int workers, int lights, int heavies, int rangers, int barracks) {
+    if (time == observedTime)
+      return;
+    observedTime = time;
+
+    int armyWorkers = barracks == 0 ? workers : 0;
+    int total = armyWorkers + lights + heavies + rangers;
+    if (total == 0)
+      return;
+    double weight = observed ? SMOOTHING : 1;
+    mix[0] += weight * ((double) armyWorkers / total - mix[0]);
+    mix[1] += weight * ((double) lights / total - mix[1]);
+    mix[2] += weight * ((double) heavies / total - mix[2]);
+    mix[3] += weight * ((double) rangers / total - mix[3]);
+
+    double shift = 0;
+    for (int i = 0; i < mix.length; i++)
+      shift += Math.abs(mix[i] - plannedMix[i]);
+    if (!observed || shift > REPLAN_SHIFT)
+      replan();
+    observed = true;
+  }
+
+  // Our unit types, best counter first
+  int[] plan() {
+    return plan;
+  }
+
+  void reset() {
+    for (int i = 0; i < mix.length; i++) {
+      mix[i] = 0;
+      plannedMix[i] = 0;
+    }
+    System.arraycopy(DEFAULT_PLAN, 0, plan, 0, plan.length);
+    observed = false;
+    observedTime = -1;
+  }
+
+  private void replan() {
+    System.arraycopy(mix, 0, plannedMix, 0, mix.length);
+    double[] score = new double[3];
+    score[LIGHT] = mix[0] + mix[3];
+    score[HEAVY] = mix[1];
+    score[RANGED] = mix[2];
+
+    // Insertion sort of the default order by score, which keeps it for ties
+    System.arraycopy(DEFAULT_PLAN, 0, plan, 0, plan.length);
+    for (int i = 1; i < plan.length; i++) {
+      int type = plan[i];
+      int j = i - 1;
+      for (; j >= 0 && score[plan[j]] < score[type]; j--)
+        plan[j + 1] = plan[j];
+      plan[j + 1] = type;
+    }
+  }
+}
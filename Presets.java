@@ -0,0 +1,58 @@
+package DinkleBot;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/*
+ * Strategy parameters tuned per map size, read once when the class loads.
+ *
+ * Entries look like `16.DefendersPerBase=4`. A map uses the presets of the smallest size at
+ * least as large as its longer side, or of the largest size if the map is bigger than all
+ * of them. The file is presets.properties next to the DinkleBot classes, or the file named by
+ * the dinklebot.presets system property; without either there are no presets.
+ */
+class Presets {
+  static final String FILE = "presets.properties";
+  static final String PROPERTY = "dinklebot.presets";
+
+  // Map size -> parameter -> value
+  private final TreeMap<Integer, Map<String, Integer>> bySize = new TreeMap<>();
+
+  static Presets load() {
+    Presets presets = new Presets();
+    Properties properties = new Properties();
+    String file = System.getProperty(PROPERTY);
+    try (InputStream in = file != null ? new FileInputStream(file) : Presets.class.getResourceAsStream(FILE)) {
+      if (in != null)
+        properties.load(in);
+    } catch (IOException e) {
+      System.err.println("DinkleBot: couldn't read presets, using the defaults: " + e);
+      return presets;
+    }
+
+    for (String key : properties.stringPropertyNames()) {
+      int split = key.indexOf('.');
+      try {
+        int size = Integer.parseInt(key.substring(0, split));
+        int value = Integer.parseInt(properties.getProperty(key).trim());
+        presets.bySize.computeIfAbsent(size, s -> new LinkedHashMap<>()).put(key.substring(split + 1), value);
+      } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+        System.err.println("DinkleBot: ignoring preset " + key);
+      }
+    }
+    return presets;
+  }
+
+  // The parameters for a map whose longer side is this long; empty if there are no presets
+  Map<String, Integer> forSize(int size) {
+    Map.Entry<Integer, Map<String, Integer>> entry = bySize.ceilingEntry(size);
+    if (entry == null)
+      entry = bySize.lastEntry();
+    return entry == null ? Map.of() : entry.getValue();
+  }
+}
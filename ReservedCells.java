@@ -0,0 +1,46 @@
+package DinkleBot;
+
+import java.util.List;
+
+import rts.ResourceUsage;
+
+/*
+ * The cells other units have already claimed this frame (ResourceUsage's positions), as a
+ * mask over the board. ResourceUsage keeps them as a List<Integer>, so testing a neighbour
+ * against it is a linear scan over boxed ints; the pathfinders copy it in once per call and
+ * test the mask instead, then clear just the cells they set.
+ */
+class ReservedCells {
+  private boolean[] mask = new boolean[0];
+  private int[] marked = new int[16];
+  private int count;
+
+  // Replaces the previous contents with ru's positions (none if ru is null)
+  void load(ResourceUsage ru, int cells) {
+    clear();
+    if (mask.length < cells)
+      mask = new boolean[cells];
+    if (ru == null)
+      return;
+    List<Integer> positions = ru.getPositionsUsed();
+    if (marked.length < positions.size())
+      marked = new int[Math.max(positions.size(), marked.length * 2)];
+    for (int i = 0; i < positions.size(); i++) {
+      int cell = positions.get(i);
+      if (cell >= 0 && cell < cells && !mask[cell]) {
+        mask[cell] = true;
+        marked[count++] = cell;
+      }
+    }
+  }
+
+  boolean contains(int cell) {
+    return mask[cell];
+  }
+
+  void clear() {
+    for (int i = 0; i < count; i++)
+      mask[marked[i]] = false;
+    count = 0;
+  }
+}
@@ -0,0 +1,189 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+
+/*
+ * Bucketed grid over a single unit list, rebuilt once per frame.
+ *
+ * The map is cut into BUCKET x BUCKET squares and every unit is filed under the
+ * square it stands on. Units inside a square are stored by their index in the
+ * source list, so ties are broken in list order exactly like the linear scans in
+ * DinkleBot (Stream.min keeps the first minimum, filter keeps list order).
+ */
+class SpatialIndex {
+  private static final int BUCKET = 4;
+
+  private List<Unit> units;
+  private int cols, rows;
+  // Bucket b holds entries[bucketStart[b]] .. entries[bucketStart[b+1]-1]
+  private int[] bucketStart = new int[1];
+  private int[] cursor = new int[0];
+  private int[] entries = new int[0];
+  private int[] xs = new int[0];
+  private int[] ys = new int[0];
+  private int[] scratch = new int[0];
+  // Set when the source list gained, lost or moved a unit since the last build
+  private boolean stale = true;
+
+  void invalidate() {
+    stale = true;
+  }
+
+  boolean isStale() {
+    return stale;
+  }
+
+  void build(List<Unit> units, int width, int height) {
+    this.units = units;
+    stale = false;
+    cols = Math.max(1, (width + BUCKET - 1) / BUCKET);
+    rows = Math.max(1, (height + BUCKET - 1) / BUCKET);
+    int buckets = cols * rows;
+    int n = units.size();
+
+    if (bucketStart.length < buckets + 1) {
+      bucketStart = new int[buckets + 1];
+      cursor = new int[buckets];
+    }
+    if (entries.length < n) {
+      entries = new int[n];
+      xs = new int[n];
+      ys = new int[n];
+      scratch = new int[n];
+    }
+
+    // Counting sort of the units into their buckets, keeping list order inside each bucket
+    Arrays.fill(bucketStart, 0, buckets + 1, 0);
+    for (int i = 0; i < n; i++) {
+      Unit unit = units.get(i);
+      xs[i] = unit.getX();
+      ys[i] = unit.getY();
+      bucketStart[bucketOf(xs[i], ys[i]) + 1]++;
+    }
+    for (int b = 0; b < buckets; b++)
+      bucketStart[b + 1] += bucketStart[b];
+    System.arraycopy(bucketStart, 0, cursor, 0, buckets);
+    for (int i = 0; i < n; i++)
+      entries[cursor[bucketOf(xs[i], ys[i])]++] = i;
+  }
+
+  Unit findClosest(Unit reference) {
+    int n = units.size();
+    if (n == 0)
+      return null;
+    int refX = reference.getX();
+    int refY = reference.getY();
+    int bx = clamp(refX / BUCKET, cols);
+    int by = clamp(refY / BUCKET, rows);
+    int maxRing = Math.max(Math.max(bx, cols - 1 - bx), Math.max(by, rows - 1 - by));
+
+    int best = -1;
+    int bestDist = Integer.MAX_VALUE;
+    for (int ring = 0; ring <= maxRing; ring++) {
+      // Every cell in ring k is at least (k-1)*BUCKET+1 away, so once that exceeds the best
+      // distance nothing further out can win (equal distances still need checking for ties)
+      if (ring > 0 && (ring - 1) * BUCKET + 1 > bestDist)
+        break;
+      for (int x = bx - ring; x <= bx + ring; x++) {
+        if (x < 0 || x >= cols)
+          continue;
+        boolean edge = x == bx - ring || x == bx + ring;
+        for (int y = by - ring; y <= by + ring; y += edge ? 1 : Math.max(1, 2 * ring)) {
+          if (y < 0 || y >= rows)
+            continue;
+          int b = y * cols + x;
+          for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+            int i = entries[e];
+            int dist = Math.abs(xs[i] - refX) + Math.abs(ys[i] - refY);
+            if (dist < bestDist || (dist == bestDist && i < best)) {
+              best = i;
+              bestDist = dist;
+            }
+          }
+        }
+      }
+    }
+    return units.get(best);
+  }
+
+  List<Unit> findUnitsWithin(Unit reference, int distance) {
+    int found = selectWithin(reference, distance);
+    List<Unit> result = new ArrayList<>(found);
+    for (int i = 0; i < found; i++)
+      result.add(selected(i));
+    return result;
+  }
+
+  // findUnitsWithin without the list: how many there are, each read back with selected(k)
+  // in list order until the next query
+  int selectWithin(Unit reference, int distance) {
+    return selectWithin(reference, distance, scratch);
+  }
+
+  Unit selected(int k) {
+    return units.get(scratch[k]);
+  }
+
+  /*
+   * selectWithin into the caller's buffer (at least size() long) instead of the shared one:
+   * the list indices of the units in range, in list order, read back with unit(into[k]).
+   * Queries that don't use the shared buffer only read the grid, so any number of threads
+   * may run them at once between builds.
+   */
+  int selectWithin(Unit reference, int distance, int[] into) {
+    int found = collectWithin(reference.getX(), reference.getY(), distance, into);
+    // Buckets are visited out of list order, so restore it
+    Arrays.sort(into, 0, found);
+    return found;
+  }
+
+  Unit unit(int i) {
+    return units.get(i);
+  }
+
+  int size() {
+    return units.size();
+  }
+
+  int countUnitsWithin(int x, int y, int distance) {
+    return collectWithin(x, y, distance, null);
+  }
+
+  // Indices go into `into` unless it is null, when they are only counted
+  private int collectWithin(int refX, int refY, int distance, int[] into) {
+    if (distance < 0 || units.isEmpty())
+      return 0;
+    int minBx = clamp((refX - distance) / BUCKET, cols);
+    int maxBx = clamp((refX + distance) / BUCKET, cols);
+    int minBy = clamp((refY - distance) / BUCKET, rows);
+    int maxBy = clamp((refY + distance) / BUCKET, rows);
+
+    int found = 0;
+    for (int y = minBy; y <= maxBy; y++) {
+      for (int x = minBx; x <= maxBx; x++) {
+        int b = y * cols + x;
+        for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+          int i = entries[e];
+          if (Math.abs(xs[i] - refX) + Math.abs(ys[i] - refY) > distance)
+            continue;
+          if (into != null)
+            into[found] = i;
+          found++;
+        }
+      }
+    }
+    return found;
+  }
+
+  private int bucketOf(int x, int y) {
+    return clamp(y / BUCKET, rows) * cols + clamp(x / BUCKET, cols);
+  }
+
+  private static int clamp(int value, int size) {
+    return Math.max(0, Math.min(size - 1, value));
+  }
+}
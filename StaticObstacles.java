@@ -0,0 +1,83 @@
+package DinkleBot;
+
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.Unit;
+
+/*
+ * The cells taken by walls and by units that can't move (bases, barracks, resources), as a
+ * mask over the board. Every pathfinder caches something that only these cells can
+ * invalidate, so each keeps one of these and asks it once per frame what changed.
+ */
+class StaticObstacles {
+  private GameState lastGame;
+  private int lastTime = -1;
+  private int width, height;
+  private boolean[] blocked = new boolean[0];
+  private boolean[] previous = new boolean[0];
+  private boolean resized, changed;
+
+  // Rebuilds the mask on the first call of a frame; false if gs was seen already
+  boolean refresh(GameState gs) {
+    if (gs == lastGame && gs.getTime() == lastTime)
+      return false;
+    lastGame = gs;
+    lastTime = gs.getTime();
+
+    PhysicalGameState board = gs.getPhysicalGameState();
+    resized = board.getWidth() != width || board.getHeight() != height;
+    if (resized) {
+      width = board.getWidth();
+      height = board.getHeight();
+      blocked = new boolean[width * height];
+      previous = new boolean[width * height];
+    }
+    boolean[] swap = previous;
+    previous = blocked;
+    blocked = swap;
+
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        blocked[x + y * width] = board.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL;
+    List<Unit> units = board.getUnits();
+    for (int i = 0; i < units.size(); i++) {
+      Unit unit = units.get(i);
+      if (!unit.getType().canMove)
+        blocked[unit.getX() + unit.getY() * width] = true;
+    }
+
+    changed = resized;
+    for (int cell = 0; cell < blocked.length && !changed; cell++)
+      changed = blocked[cell] != previous[cell];
+    return true;
+  }
+
+  int width() {
+    return width;
+  }
+
+  int height() {
+    return height;
+  }
+
+  boolean blocked(int cell) {
+    return blocked[cell];
+  }
+
+  // Whether the cell was blocked as of the previous refresh (never, after a resize)
+  boolean wasBlocked(int cell) {
+    return previous[cell];
+  }
+
+  // Whether the last refresh found the board resized, so cell numbers mean something else
+  boolean resized() {
+    return resized;
+  }
+
+  // Whether the last refresh found any cell blocked or opened (or the board resized)
+  boolean changed() {
+    return changed;
+  }
+}
@@ -0,0 +1,257 @@
+package DinkleBot;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/*
+ * Works out the board-wide parts of the strategy on a thread of its own, so they never hold
+ * up a frame: the resources near each of our bases (what the harvester quota is made of)
+ * and the production order that counters the enemy's mix.
+ *
+ * Hand-off: while the planner is free, submit() copies what a plan needs of the frame (each
+ * unit's kind, owner, cell and ID) into the planner's input arrays and raises `planning`.
+ * The planner reads the input only while `planning` is up and the frame thread writes it
+ * only while it is down, so the flag is all the two share on the way in. A frame that finds
+ * the planner busy hands over nothing and works from the plan it has.
+ *
+ * Publishing: a lock-free double buffer. The planner writes into the buffer that isn't
+ * published and then bumps `version`, which publishes it. latest() copies the published one
+ * into a Strategy of the frame thread's own and checks the version again afterwards: if it
+ * moved, the planner may already be writing into the buffer being copied, so the copy is
+ * dropped and the previous plan is kept for this frame. Neither side ever waits for the
+ * other.
+ *
+ * Lifetime: the thread is started on the first hand-over. stop() ends it and waits a short
+ * while for it to finish the plan it's on; a stopped planner refuses input and publishes
+ * nothing new, so a bot that plays again makes a new one.
+ */
+class StrategyPlanner {
+  // Kinds of unit in the input; submit() is given the types for the first six
+  static final int BASE = 0, BARRACKS = 1, WORKER = 2, LIGHT = 3, HEAVY = 4, RANGED = 5;
+  static final int KINDS = 6, OTHER = 6, RESOURCE = 7;
+
+  // How long stop() waits for the plan in progress
+  private static final long STOP_WAIT_MILLIS = 100;
+
+  static class Strategy {
+    // Game time of the frame this was planned from, or -1 before the first plan
+    int time = -1;
+    // Our army types (OpponentModel's indices), best counter first
+    final int[] production = new int[3];
+    // Our bases and the resources near each
+    int bases;
+    long[] baseIds = new long[4];
+    int[] resourcesNear = new int[4];
+
+    // -1 for a base the plan doesn't know about yet
+    int resourcesNear(long baseId) {
+      for (int i = 0; i < bases; i++)
+        if (baseIds[i] == baseId)
+          return resourcesNear[i];
+      return -1;
+    }
+
+    void addBase(long baseId, int resources) {
+      if (bases == baseIds.length) {
+        baseIds = Arrays.copyOf(baseIds, bases * 2);
+        resourcesNear = Arrays.copyOf(resourcesNear, bases * 2);
+      }
+      baseIds[bases] = baseId;
+      resourcesNear[bases] = resources;
+      bases++;
+    }
+
+    // Copes with `other` being written at the same time; the caller checks for that and drops the copy
+    private void copyFrom(Strategy other) {
+      long[] ids = other.baseIds;
+      int[] near = other.resourcesNear;
+      int n = Math.min(other.bases, Math.min(ids.length, near.length));
+      time = other.time;
+      System.arraycopy(other.production, 0, production, 0, production.length);
+      bases = 0;
+      for (int i = 0; i < n; i++)
+        addBase(ids[i], near[i]);
+    }
+  }
+
+  // Up from the hand-over until the plan made from it is published
+  private final AtomicBoolean planning = new AtomicBoolean();
+  private volatile boolean stopped;
+  private Thread thread;
+
+  // The frame handed over; written by submit() while `planning` is down, read by the planner while it's up
+  private int time, player, count;
+  private int[] kind = new int[0];
+  private int[] owner = new int[0];
+  private int[] x = new int[0];
+  private int[] y = new int[0];
+  private long[] id = new long[0];
+  // MapAnalysis' region table, which no one writes once made; null to go by radius alone
+  private int[] regions;
+  private int width, radius;
+
+  // Buffer version & 1 is the published one
+  private final Strategy[] buffers = {new Strategy(), new Strategy()};
+  private volatile int version;
+
+  // Planner thread only
+  private final OpponentModel opponent = new OpponentModel();
+
+  // Frame thread only: the plan in use and a spare to copy the next one into
+  private Strategy current = new Strategy();
+  private Strategy spare = new Strategy();
+  private int currentVersion;
+
+  /*
+   * Hands the frame over if the planner is free; false if it is still on an earlier one or
+   * stopped. types holds our UnitTypes by kind, regions and width are the map analysis' and
+   * radius is how far a base outside every region counts resources.
+   */
+  boolean submit(int time, int player, List<Unit> units, UnitType[] types, int[] regions, int width, int radius) {
+    if (stopped || planning.get())
+      return false;
+    int n = units.size();
+    if (kind.length < n) {
+      int capacity = Math.max(n, kind.length * 2);
+      kind = new int[capacity];
+      owner = new int[capacity];
+      x = new int[capacity];
+      y = new int[capacity];
+      id = new long[capacity];
+    }
+    for (int i = 0; i < n; i++) {
+      Unit unit = units.get(i);
+      owner[i] = unit.getPlayer();
+      x[i] = unit.getX();
+      y[i] = unit.getY();
+      id[i] = unit.getID();
+      kind[i] = owner[i] < 0 ? RESOURCE : kindOf(unit.getType(), types);
+    }
+    this.count = n;
+    this.time = time;
+    this.player = player;
+    this.regions = regions;
+    this.width = width;
+    this.radius = radius;
+
+    if (thread == null) {
+      thread = new Thread(this::run, "DinkleBot planner");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    planning.set(true);
+    LockSupport.unpark(thread);
+    return true;
+  }
+
+  // The newest plan published, or the one from last frame if the planner is mid-publish
+  Strategy latest() {
+    int v = version;
+    if (v != currentVersion) {
+      spare.copyFrom(buffers[v & 1]);
+      // Keeps the copy's reads from drifting past the second look at the version
+      VarHandle.acquireFence();
+      if (version == v) {
+        Strategy read = spare;
+        spare = current;
+        current = read;
+        currentVersion = v;
+      }
+    }
+    return current;
+  }
+
+  // Ends the thread, waiting up to STOP_WAIT_MILLIS for the plan it's on; safe to call more than once
+  void stop() {
+    stopped = true;
+    Thread running = thread;
+    if (running == null || running == Thread.currentThread())
+      return;
+    LockSupport.unpark(running);
+    try {
+      running.join(STOP_WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  boolean isStopped() {
+    return stopped;
+  }
+
+  private void run() {
+    while (true) {
+      while (!planning.get() && !stopped)
+        LockSupport.park(this);
+      if (stopped)
+        return;
+      // Only this thread writes version, so the increment can't lose an update
+      int next = version + 1;
+      plan(buffers[next & 1]);
+      if (stopped)
+        return;
+      version = next;
+      planning.set(false);
+    }
+  }
+
+  private void plan(Strategy out) {
+    out.bases = 0;
+    int workers = 0, lights = 0, heavies = 0, rangers = 0, enemyBarracks = 0;
+    for (int i = 0; i < count; i++) {
+      if (owner[i] == player) {
+        if (kind[i] == BASE)
+          out.addBase(id[i], resourcesNear(i));
+      } else if (owner[i] >= 0) {
+        switch (kind[i]) {
+          case WORKER:
+            workers++;
+            break;
+          case LIGHT:
+            lights++;
+            break;
+          case HEAVY:
+            heavies++;
+            break;
+          case RANGED:
+            rangers++;
+            break;
+          case BARRACKS:
+            enemyBarracks++;
+            break;
+        }
+      }
+    }
+    opponent.observe(time, workers, lights, heavies, rangers, enemyBarracks);
+    System.arraycopy(opponent.plan(), 0, out.production, 0, out.production.length);
+    out.time = time;
+  }
+
+  // As DinkleBot counts them: resources in the base's region, or within the radius when the
+  // base is outside every region
+  private int resourcesNear(int base) {
+    int region = regions == null ? -1 : regions[x[base] + y[base] * width];
+    int resources = 0;
+    for (int i = 0; i < count; i++) {
+      if (kind[i] != RESOURCE)
+        continue;
+      if (region < 0 ? Math.abs(x[i] - x[base]) + Math.abs(y[i] - y[base]) <= radius
+          : regions[x[i] + y[i] * width] == region)
+        resources++;
+    }
+    return resources;
+  }
+
+  private static int kindOf(UnitType type, UnitType[] types) {
+    for (int k = 0; k < KINDS; k++)
+      if (types[k] == type)
+        return k;
+    return OTHER;
+  }
+}
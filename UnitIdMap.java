@@ -0,0 +1,103 @@
+package DinkleBot;
+
+import java.util.Arrays;
+
+/*
+ * Open-addressing map from unit ID to a non-negative int (a cell, a count, ...), the map
+ * counterpart of UnitIdSet. Lookups of a missing ID return -1.
+ */
+class UnitIdMap {
+  private static final long EMPTY = -1;
+
+  private long[] keys;
+  private int[] values;
+  private int size;
+
+  UnitIdMap() {
+    this(16);
+  }
+
+  UnitIdMap(int expected) {
+    int capacity = 16;
+    while (capacity < expected * 2)
+      capacity <<= 1;
+    keys = new long[capacity];
+    values = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  int size() {
+    return size;
+  }
+
+  int get(long id) {
+    int mask = keys.length - 1;
+    for (int i = hash(id) & mask; keys[i] != EMPTY; i = (i + 1) & mask)
+      if (keys[i] == id)
+        return values[i];
+    return -1;
+  }
+
+  void put(long id, int value) {
+    if ((size + 1) * 2 > keys.length)
+      grow();
+    int mask = keys.length - 1;
+    int i = hash(id) & mask;
+    for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+      if (keys[i] == id) {
+        values[i] = value;
+        return;
+      }
+    }
+    keys[i] = id;
+    values[i] = value;
+    size++;
+  }
+
+  // The value the ID had, or -1 if it wasn't there
+  int remove(long id) {
+    int mask = keys.length - 1;
+    int i = hash(id) & mask;
+    for (; keys[i] != id; i = (i + 1) & mask)
+      if (keys[i] == EMPTY)
+        return -1;
+    int removed = values[i];
+
+    // Backward-shift deletion, as in UnitIdSet
+    int gap = i;
+    for (int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+      int home = hash(keys[j]) & mask;
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        keys[gap] = keys[j];
+        values[gap] = values[j];
+        gap = j;
+      }
+    }
+    keys[gap] = EMPTY;
+    size--;
+    return removed;
+  }
+
+  void clear() {
+    if (size == 0)
+      return;
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++)
+      if (oldKeys[i] != EMPTY)
+        put(oldKeys[i], oldValues[i]);
+  }
+
+  private static int hash(long id) {
+    return UnitIdSet.hash(id);
+  }
+}
@@ -0,0 +1,100 @@
+package DinkleBot;
+
+import java.util.Arrays;
+
+/*
+ * Open-addressing set of unit IDs. Role assignments (harvesters, defenders, ...) are
+ * kept by ID so membership checks are O(1), survive GameState copies that hand us new
+ * Unit objects, and never box the ID into a Long.
+ */
+class UnitIdSet {
+  private static final long EMPTY = -1;
+
+  private long[] slots;
+  private int size;
+
+  UnitIdSet() {
+    this(16);
+  }
+
+  UnitIdSet(int expected) {
+    int capacity = 16;
+    while (capacity < expected * 2)
+      capacity <<= 1;
+    slots = new long[capacity];
+    Arrays.fill(slots, EMPTY);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean contains(long id) {
+    int mask = slots.length - 1;
+    for (int i = hash(id) & mask; slots[i] != EMPTY; i = (i + 1) & mask)
+      if (slots[i] == id)
+        return true;
+    return false;
+  }
+
+  boolean add(long id) {
+    if ((size + 1) * 2 > slots.length)
+      grow();
+    int mask = slots.length - 1;
+    int i = hash(id) & mask;
+    for (; slots[i] != EMPTY; i = (i + 1) & mask)
+      if (slots[i] == id)
+        return false;
+    slots[i] = id;
+    size++;
+    return true;
+  }
+
+  boolean remove(long id) {
+    int mask = slots.length - 1;
+    int i = hash(id) & mask;
+    for (; slots[i] != id; i = (i + 1) & mask)
+      if (slots[i] == EMPTY)
+        return false;
+
+    // Backward-shift deletion keeps every probe chain unbroken without tombstones
+    int gap = i;
+    for (int j = (gap + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+      int home = hash(slots[j]) & mask;
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        slots[gap] = slots[j];
+        gap = j;
+      }
+    }
+    slots[gap] = EMPTY;
+    size--;
+    return true;
+  }
+
+  void clear() {
+    if (size == 0)
+      return;
+    Arrays.fill(slots, EMPTY);
+    size = 0;
+  }
+
+  private void grow() {
+    long[] old = slots;
+    slots = new long[old.length * 2];
+    Arrays.fill(slots, EMPTY);
+    size = 0;
+    for (long id : old)
+      if (id != EMPTY)
+        add(id);
+  }
+
+  // Shared with UnitIdMap
+  static int hash(long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,71 @@
+package DinkleBot;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rts.units.Unit;
+
+/*
+ * Every unit on the board as parallel primitive arrays, filled once per frame in board order.
+ *
+ * Loops over a whole population (every resource for every worker, every unit for cell
+ * occupancy) read positions and owners from here instead of going through each Unit
+ * object, so they walk a few dense int arrays. A unit is known by its slot, the index into
+ * the arrays; the Unit itself is only fetched to issue it an action or hand it to code
+ * that takes one. Resources are also listed on their own, since harvesting only ever
+ * looks at them.
+ */
+class UnitSnapshot {
+  int count;
+  int[] x = new int[0];
+  int[] y = new int[0];
+  int[] owner = new int[0];
+  private Unit[] units = new Unit[0];
+
+  // Slots of the resources, in board order
+  int resourceCount;
+  int[] resourceSlots = new int[0];
+
+  // Unit ID -> slot
+  private final UnitIdMap slots = new UnitIdMap(128);
+
+  void build(List<Unit> boardUnits) {
+    int n = boardUnits.size();
+    if (x.length < n) {
+      int capacity = Math.max(n, x.length * 2);
+      x = new int[capacity];
+      y = new int[capacity];
+      owner = new int[capacity];
+      units = new Unit[capacity];
+      resourceSlots = new int[capacity];
+    }
+    // Drop references to last frame's units past the end
+    Arrays.fill(units, n, Math.max(n, count), null);
+    slots.clear();
+    count = n;
+    resourceCount = 0;
+    for (int s = 0; s < n; s++) {
+      Unit unit = boardUnits.get(s);
+      x[s] = unit.getX();
+      y[s] = unit.getY();
+      owner[s] = unit.getPlayer();
+      units[s] = unit;
+      slots.put(unit.getID(), s);
+      if (owner[s] < 0)
+        resourceSlots[resourceCount++] = s;
+    }
+  }
+
+  // Slot of the unit with this ID, or -1 if it isn't on the board this frame
+  int slot(long unitId) {
+    return slots.get(unitId);
+  }
+
+  Unit unit(int slot) {
+    return units[slot];
+  }
+
+  int distance(int slot, int toX, int toY) {
+    return Math.abs(x[slot] - toX) + Math.abs(y[slot] - toY);
+  }
+}
@@ -0,0 +1,133 @@
+package DinkleBot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.Unit;
+
+/*
+ * Diffs consecutive GameStates by unit ID and reports births, deaths and moves.
+ *
+ * microRTS appends new units to the end of the board's unit list and hands out IDs from
+ * an increasing counter, while dead units are simply removed. That lets two frames be
+ * matched with a single merge walk instead of hashing every unit. Anything that breaks
+ * those assumptions (a new game, a copied GameState with fresh Unit objects, a state
+ * loaded from disk) is reported as a rebuild, in which case every current unit is a
+ * birth and the previous units that are gone are deaths.
+ */
+class UnitTracker {
+  private final List<Unit> births = new ArrayList<>();
+  private final List<Unit> deaths = new ArrayList<>();
+  private final List<Unit> moves = new ArrayList<>();
+  private final UnitIdSet alive = new UnitIdSet(128);
+
+  // The previous frame, in board order
+  private Unit[] refs = new Unit[0];
+  private long[] ids = new long[0];
+  private int[] positions = new int[0];
+  private int count;
+  private long maxId = -1;
+  private int width = -1, height = -1;
+  private boolean rebuild;
+
+  void update(GameState game) {
+    PhysicalGameState board = game.getPhysicalGameState();
+    List<Unit> current = board.getUnits();
+    births.clear();
+    deaths.clear();
+    moves.clear();
+
+    rebuild = width != board.getWidth() || height != board.getHeight() || !diff(current, board.getWidth());
+    if (rebuild) {
+      births.clear();
+      deaths.clear();
+      moves.clear();
+      alive.clear();
+      for (int i = 0; i < current.size(); i++) {
+        Unit unit = current.get(i);
+        alive.add(unit.getID());
+        births.add(unit);
+      }
+      for (int i = 0; i < count; i++)
+        if (!alive.contains(ids[i]))
+          deaths.add(refs[i]);
+    }
+
+    width = board.getWidth();
+    height = board.getHeight();
+    remember(current);
+  }
+
+  // True if the frame could be matched incrementally against the previous one
+  private boolean diff(List<Unit> current, int boardWidth) {
+    int p = 0;
+    boolean bornYet = false;
+    for (int i = 0; i < current.size(); i++) {
+      Unit unit = current.get(i);
+      long id = unit.getID();
+      if (id > maxId) {
+        births.add(unit);
+        bornYet = true;
+        continue;
+      }
+      // Survivors must all come before the newborns and in the same relative order
+      if (bornYet)
+        return false;
+      while (p < count && ids[p] != id)
+        deaths.add(refs[p++]);
+      if (p == count || refs[p] != unit)
+        return false;
+      if (positions[p] != unit.getX() + unit.getY() * boardWidth)
+        moves.add(unit);
+      p++;
+    }
+    while (p < count)
+      deaths.add(refs[p++]);
+    return true;
+  }
+
+  private void remember(List<Unit> current) {
+    count = current.size();
+    if (refs.length < count) {
+      int capacity = Math.max(count, refs.length * 2);
+      refs = new Unit[capacity];
+      ids = new long[capacity];
+      positions = new int[capacity];
+    }
+    for (int i = 0; i < count; i++) {
+      Unit unit = current.get(i);
+      refs[i] = unit;
+      ids[i] = unit.getID();
+      positions[i] = unit.getX() + unit.getY() * width;
+      maxId = Math.max(maxId, ids[i]);
+    }
+    // Drop references to units that are no longer on the board
+    for (int i = count; i < refs.length && refs[i] != null; i++)
+      refs[i] = null;
+  }
+
+  boolean rebuilt() {
+    return rebuild;
+  }
+
+  List<Unit> births() {
+    return births;
+  }
+
+  List<Unit> deaths() {
+    return deaths;
+  }
+
+  List<Unit> moves() {
+    return moves;
+  }
+
+  void reset() {
+    count = 0;
+    maxId = -1;
+    width = -1;
+    height = -1;
+  }
+}
@@ -0,0 +1,85 @@
+package DinkleBot;
+
+import java.util.Random;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/*
+ * Synthetic mid-game states for the benchmarks. Each player gets a base and a barracks in
+ * its own third of the map and an army that grows with the map area (2 units per side on
+ * 8x8 up to 128 on 64x64), with resource patches near both bases. Placement is seeded by
+ * the map size so every run measures the same state.
+ */
+class BenchmarkFixtures {
+  static GameState game(UnitTypeTable unitTypeTable, int size) {
+    Random random = new Random(size);
+    PhysicalGameState board = new PhysicalGameState(size, size);
+    board.addPlayer(new Player(0, 20));
+    board.addPlayer(new Player(1, 20));
+
+    int army = Math.max(2, size * size / 32);
+    for (int player = 0; player < 2; player++) {
+      int minX = player == 0 ? 0 : size - size / 3;
+      int maxX = player == 0 ? size / 3 : size;
+      place(board, random, new Unit(player, type(unitTypeTable, "Base"), 0, 0, 0), minX, maxX);
+      place(board, random, new Unit(player, type(unitTypeTable, "Barracks"), 0, 0, 0), minX, maxX);
+      for (int i = 0; i < army; i++) {
+        // 40% workers, 30% lights, 15% heavies, 15% rangers
+        String name = i % 20 < 8 ? "Worker" : i % 20 < 14 ? "Light" : i % 20 < 17 ? "Heavy" : "Ranged";
+        place(board, random, new Unit(player, type(unitTypeTable, name), 0, 0, 0), minX, maxX);
+      }
+      for (int i = 0; i < Math.max(1, size / 8); i++)
+        place(board, random, new Unit(-1, type(unitTypeTable, "Resource"), 0, 0, 20), minX, maxX);
+    }
+    return new GameState(board, unitTypeTable);
+  }
+
+  /*
+   * A late-game brawl: each player's base and barracks in opposite corners, and the middle
+   * third of the map packed at random with both sides' workers, lights, heavies and rangers,
+   * so nearly every unit has enemies in reach.
+   */
+  static GameState melee(UnitTypeTable unitTypeTable, int size) {
+    Random random = new Random(size);
+    PhysicalGameState board = new PhysicalGameState(size, size);
+    board.addPlayer(new Player(0, 20));
+    board.addPlayer(new Player(1, 20));
+    board.addUnit(new Unit(0, type(unitTypeTable, "Base"), 1, 1, 0));
+    board.addUnit(new Unit(0, type(unitTypeTable, "Barracks"), 3, 1, 0));
+    board.addUnit(new Unit(-1, type(unitTypeTable, "Resource"), 0, 0, 20));
+    board.addUnit(new Unit(1, type(unitTypeTable, "Base"), size - 2, size - 2, 0));
+    board.addUnit(new Unit(1, type(unitTypeTable, "Barracks"), size - 4, size - 2, 0));
+    board.addUnit(new Unit(-1, type(unitTypeTable, "Resource"), size - 1, size - 1, 20));
+
+    String[] names = {"Worker", "Light", "Heavy", "Ranged"};
+    for (int y = size / 3; y < size - size / 3; y++) {
+      for (int x = 0; x < size; x++) {
+        if (random.nextInt(3) != 0)
+          continue;
+        String name = names[random.nextInt(names.length)];
+        board.addUnit(new Unit(random.nextInt(2), type(unitTypeTable, name), x, y, 0));
+      }
+    }
+    return new GameState(board, unitTypeTable);
+  }
+
+  private static void place(PhysicalGameState board, Random random, Unit unit, int minX, int maxX) {
+    int x, y;
+    do {
+      x = minX + random.nextInt(maxX - minX);
+      y = random.nextInt(board.getHeight());
+    } while (board.getUnitAt(x, y) != null);
+    unit.setX(x);
+    unit.setY(y);
+    board.addUnit(unit);
+  }
+
+  private static UnitType type(UnitTypeTable unitTypeTable, String name) {
+    return unitTypeTable.getUnitType(name);
+  }
+}
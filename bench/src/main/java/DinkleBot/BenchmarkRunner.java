@@ -0,0 +1,24 @@
+package DinkleBot;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs DinkleBotBenchmark with the GC profiler attached, so every score comes with
+ * gc.alloc.rate.norm (bytes allocated per frame), and writes the results as JSON.
+ */
+public class BenchmarkRunner {
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(DinkleBotBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(args.length > 0 ? args[0] : "dinklebot-benchmarks.json")
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,151 @@
+package DinkleBot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ai.PassiveAI;
+import ai.core.AI;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/*
+ * Decision time for one frame, plus the spatial helpers it leans on. Each helper benchmark
+ * runs the queries one frame would make (every unit, resource or base once), so its score
+ * is comparable to the getAction score on the same map size.
+ *
+ * getAction plays a live game: before each call the previous call's actions (and a passive
+ * opponent's) are issued and the state is cycled, outside the measurement, so every call
+ * sees a new frame with the tracker, ledger and opponent model doing their usual work
+ * instead of short-circuiting on a frame they've already seen. The game restarts from the
+ * fixture every GAME_CYCLES cycles.
+ *
+ * AverageTime gives the mean and SampleTime the latency percentiles (p0.99); run with the
+ * GC profiler (BenchmarkRunner does) for the allocation rate per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DinkleBotBenchmark {
+  @Param({"8", "16", "32", "64"})
+  public int size;
+
+  private static final int GAME_CYCLES = 500;
+
+  private GameState game;
+  private DinkleBot bot;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    UnitTypeTable unitTypeTable = new UnitTypeTable();
+    game = BenchmarkFixtures.game(unitTypeTable, size);
+    bot = new DinkleBot(unitTypeTable);
+    // The first frame classifies the whole board and hands out roles; measure steady state
+    bot.getAction(0, game);
+  }
+
+  // findDefenderSlot's own bot, reset before every call since a claimed slot stays claimed
+  // for the rest of the frame
+  @State(Scope.Thread)
+  public static class Defenders {
+    private DinkleBot bot;
+
+    @Setup(Level.Trial)
+    public void setup(DinkleBotBenchmark benchmark) {
+      UnitTypeTable unitTypeTable = new UnitTypeTable();
+      bot = new DinkleBot(unitTypeTable);
+      bot.getAction(0, BenchmarkFixtures.game(unitTypeTable, benchmark.size));
+    }
+
+    @Setup(Level.Invocation)
+    public void release() {
+      bot.reset();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class LiveGame {
+    private UnitTypeTable unitTypeTable;
+    private GameState fixture;
+    private GameState game;
+    private DinkleBot bot;
+    private AI opponent;
+    private PlayerAction last;
+
+    @Setup(Level.Trial)
+    public void setup(DinkleBotBenchmark benchmark) {
+      unitTypeTable = new UnitTypeTable();
+      fixture = BenchmarkFixtures.game(unitTypeTable, benchmark.size);
+      start();
+    }
+
+    // Plays out the last frame's actions so the next call gets the following cycle
+    @Setup(Level.Invocation)
+    public void advance() throws Exception {
+      game.issueSafe(last);
+      game.issueSafe(opponent.getAction(1, game));
+      if (game.cycle() || game.getTime() >= GAME_CYCLES)
+        start();
+    }
+
+    // A fresh game and bot, past the first frame's full classification
+    private void start() {
+      game = fixture.clone();
+      bot = new DinkleBot(unitTypeTable);
+      opponent = new PassiveAI(unitTypeTable);
+      last = bot.getAction(0, game);
+    }
+  }
+
+  @Benchmark
+  public PlayerAction getAction(LiveGame live) {
+    live.last = live.bot.getAction(0, live.game);
+    return live.last;
+  }
+
+  @Benchmark
+  public void findClosest(Blackhole blackhole) {
+    for (Unit unit : bot.units)
+      blackhole.consume(bot.findClosest(bot._units, unit));
+  }
+
+  @Benchmark
+  public void findUnitsWithin(Blackhole blackhole) {
+    for (Unit resource : bot.resources)
+      blackhole.consume(bot.findUnitsWithin(bot.units, resource, 1));
+  }
+
+  @Benchmark
+  public void findBarracksLocation(Blackhole blackhole) {
+    for (Unit base : bot.bases)
+      blackhole.consume(bot.findBarracksLocation(base));
+  }
+
+  @Benchmark
+  public void findDefenderSlot(Defenders defenders, Blackhole blackhole) {
+    DinkleBot bot = defenders.bot;
+    for (Unit light : bot.lights) {
+      Unit base = bot.findClosest(bot.bases, light);
+      Unit _base = bot.findClosest(bot._bases(), light);
+      if (base != null && _base != null)
+        blackhole.consume(bot.findDefenderSlot(light, base, _base));
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package DinkleBot;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/*
+ * Tunes DinkleBot's strategy parameters by successive halving over headless games and
+ * writes the winners to the presets file, one set per map size.
+ *
+ * Maps are grouped by their longer side and each group is tuned on its own. A group starts
+ * with `candidates` parameter sets: the current defaults and random ones from RANGES. Every
+ * round each remaining set plays `games` more games per map, opponent and side (spread over
+ * all cores), the better half by score over all its games (a win is 1, a draw 1/2) goes through, and the games
+ * per round double. The last one standing is written as that size's presets, keeping what
+ * the file already holds for other sizes.
+ *
+ * Arguments are name=value pairs:
+ *   maps=a.xml,b.xml   maps to tune on (required)
+ *   opponents=...      as for TournamentRunner, default all of them
+ *   candidates=16      parameter sets per map size
+ *   games=1            games per map, opponent and side in the first round
+ *   cycles=3000        game length limit
+ *   threads=<cores>    games played at once
+ *   seed=1
+ *   out=../presets.properties   relative to bench/; the bot's jar and this module package
+ *                               that file next to the DinkleBot classes
+ */
+public class ParameterTuner {
+  // Parameter, lowest and highest value tried
+  private static final Object[][] RANGES = {
+    {"DefendersPerBase", 0, 10},
+    {"DefenderRadius", 2, 8},
+    {"EngagementRadius", 2, 16},
+    {"HarvestersPerResource", 1, 4},
+    {"InitialHarvesters", 1, 6},
+    {"ContestRadiusDivisor", 2, 8},
+  };
+
+  // The presets file at the top of the repository, which Presets.load() reads once packaged
+  private static final String DEFAULT_OUT = "../" + Presets.FILE;
+
+  private final UnitTypeTable unitTypeTable = new UnitTypeTable();
+  private final List<String> opponents;
+  private final int maxCycles;
+  private final ExecutorService pool;
+
+  private ParameterTuner(List<String> opponents, int maxCycles, int threads) {
+    this.opponents = opponents;
+    this.maxCycles = maxCycles;
+    this.pool = Executors.newFixedThreadPool(threads);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int split = arg.indexOf('=');
+      if (split < 0)
+        throw new IllegalArgumentException("Expected name=value, got " + arg);
+      options.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+    if (!options.containsKey("maps"))
+      throw new IllegalArgumentException("Usage: ParameterTuner maps=a.xml,b.xml [opponents=...] [candidates=16] [games=1] [cycles=3000] [threads=n] [seed=1] [out=file]");
+
+    List<String> opponents = Arrays.asList(options.getOrDefault("opponents", String.join(",", TournamentRunner.OPPONENTS.keySet())).split(","));
+    for (String opponent : opponents)
+      if (!TournamentRunner.OPPONENTS.containsKey(opponent))
+        throw new IllegalArgumentException("Unknown opponent " + opponent + ", expected one of " + TournamentRunner.OPPONENTS.keySet());
+    int candidates = Integer.parseInt(options.getOrDefault("candidates", "16"));
+    int games = Integer.parseInt(options.getOrDefault("games", "1"));
+    Random random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+    String out = options.getOrDefault("out", DEFAULT_OUT);
+    ParameterTuner tuner = new ParameterTuner(opponents, Integer.parseInt(options.getOrDefault("cycles", "3000")),
+        Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors()))));
+
+    // Map size -> maps of that size
+    TreeMap<Integer, List<String>> bySize = new TreeMap<>();
+    for (String map : options.get("maps").split(",")) {
+      PhysicalGameState board = PhysicalGameState.load(map, tuner.unitTypeTable);
+      bySize.computeIfAbsent(Math.max(board.getWidth(), board.getHeight()), s -> new ArrayList<>()).add(map);
+    }
+
+    TreeMap<String, String> presets = readPresets(out);
+    try {
+      for (Map.Entry<Integer, List<String>> group : bySize.entrySet()) {
+        int[] best = tuner.tune(group.getValue(), candidates, games, random);
+        for (int p = 0; p < RANGES.length; p++)
+          presets.put(group.getKey() + "." + RANGES[p][0], Integer.toString(best[p]));
+        System.out.println("Size " + group.getKey() + ": " + describe(best));
+        writePresets(out, presets);
+      }
+    } finally {
+      tuner.pool.shutdown();
+    }
+  }
+
+  // Successive halving over parameter sets for one group of maps
+  private int[] tune(List<String> maps, int candidates, int games, Random random) throws Exception {
+    List<int[]> sets = new ArrayList<>();
+    sets.add(defaults());
+    while (sets.size() < candidates) {
+      int[] set = new int[RANGES.length];
+      for (int p = 0; p < RANGES.length; p++) {
+        int low = (Integer) RANGES[p][1];
+        int high = (Integer) RANGES[p][2];
+        set[p] = low + random.nextInt(high - low + 1);
+      }
+      sets.add(set);
+    }
+    // Half points (a win is 2, a draw 1) and games played, per set, over all rounds so far
+    Map<int[], int[]> scores = new HashMap<>();
+    for (int[] set : sets)
+      scores.put(set, new int[2]);
+
+    for (int round = 0; sets.size() > 1; round++, games *= 2) {
+      List<Future<Integer>> results = new ArrayList<>();
+      List<int[]> playedBy = new ArrayList<>();
+      for (int[] set : sets)
+        for (String map : maps)
+          for (String opponent : opponents)
+            for (int side = 0; side < 2; side++)
+              for (int g = 0; g < games; g++) {
+                int s = side;
+                results.add(pool.submit(() -> play(set, map, opponent, s)));
+                playedBy.add(set);
+              }
+      for (int i = 0; i < results.size(); i++) {
+        int[] score = scores.get(playedBy.get(i));
+        score[0] += results.get(i).get();
+        score[1]++;
+      }
+
+      sets.sort((a, b) -> Double.compare(rate(scores.get(b)), rate(scores.get(a))));
+      System.out.println("Round " + round + ", " + results.size() + " games, best " + describe(sets.get(0))
+          + " at " + String.format("%.3f", rate(scores.get(sets.get(0)))));
+      sets = new ArrayList<>(sets.subList(0, (sets.size() + 1) / 2));
+    }
+    return sets.get(0);
+  }
+
+  // Half points for one game with the given parameters: 2 for a win, 1 for a draw
+  private int play(int[] set, String map, String opponent, int side) {
+    try {
+      DinkleBot bot = new DinkleBot(unitTypeTable);
+      bot.setUsePresets(false);
+      for (int p = 0; p < RANGES.length; p++)
+        bot.setParameter((String) RANGES[p][0], set[p]);
+      GameState state = new GameState(PhysicalGameState.load(map, unitTypeTable), unitTypeTable);
+      int winner = TournamentRunner.playGame(bot, TournamentRunner.OPPONENTS.get(opponent).apply(unitTypeTable), state, side, maxCycles, null);
+      return winner == side ? 2 : winner < 0 ? 1 : 0;
+    } catch (Exception e) {
+      System.err.println(map + " vs " + opponent + " with " + describe(set) + ": " + e);
+      return 0;
+    }
+  }
+
+  private static double rate(int[] score) {
+    return score[1] == 0 ? 0 : score[0] / (2.0 * score[1]);
+  }
+
+  private static int[] defaults() {
+    DinkleBot bot = new DinkleBot(new UnitTypeTable());
+    return new int[] {bot.getDefendersPerBase(), bot.getDefenderRadius(), bot.getEngagementRadius(), bot.getHarvestersPerResource(),
+        bot.getInitialHarvesters(), bot.getContestRadiusDivisor()};
+  }
+
+  private static String describe(int[] set) {
+    StringBuilder text = new StringBuilder();
+    for (int p = 0; p < RANGES.length; p++)
+      text.append(p == 0 ? "" : " ").append(RANGES[p][0]).append('=').append(set[p]);
+    return text.toString();
+  }
+
+  private static TreeMap<String, String> readPresets(String file) throws IOException {
+    TreeMap<String, String> presets = new TreeMap<>();
+    if (!Files.exists(Paths.get(file)))
+      return presets;
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        int split = line.indexOf('=');
+        if (!line.startsWith("#") && split > 0)
+          presets.put(line.substring(0, split).trim(), line.substring(split + 1).trim());
+      }
+    }
+    return presets;
+  }
+
+  private static void writePresets(String file, TreeMap<String, String> presets) throws IOException {
+    try (Writer writer = new FileWriter(file)) {
+      writer.write("# Strategy parameters per map size, written by ParameterTuner (bench module).\n");
+      writer.write("#\n");
+      writer.write("# <size>.<Parameter>=<value>, e.g. 16.DefendersPerBase=4. A map uses the presets of the\n");
+      writer.write("# smallest size at least as large as its longer side (or the largest size listed), and any\n");
+      writer.write("# parameter not listed keeps DinkleBot's default.\n");
+      for (Map.Entry<String, String> entry : presets.entrySet())
+        writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package DinkleBot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/*
+ * Records what DinkleBot does in a real game and checks a later build still does exactly that.
+ *
+ *   record map=a.xml opponent=WorkerRush side=0 cycles=3000 trace=game.trace
+ *   replay trace=game.trace
+ *
+ * Recording plays one game against a standard bot, and the trace keeps every frame's state
+ * as JSON, the bot's actions (unit ID and action, sorted), both players' actions as issued
+ * and how long getAction took. Replay needs nothing but the trace: it loads the first state
+ * once and plays the game again on that one live state with a single DinkleBot, which is
+ * asked for its actions each frame before both players' recorded actions are issued and the
+ * state cycled, so the bot keeps its tracker, intents and abstract actions from frame to
+ * frame as it did in the game. Any frame whose actions differ is reported, and the
+ * per-frame latency change is summarised. The recorded JSON is only a check: if the replayed
+ * state ever differs from it, that is reported and the replay carries on from the recorded
+ * state. It exits with status 1 if any frame or state differed.
+ *
+ * Both sides run without a time budget, since deferring units by the clock would make the
+ * actions depend on machine speed.
+ *
+ * The trace is gzipped DataOutput: a header (magic, version, player, map name), then per frame
+ * a 1, the game time, the state's JSON, the action count, each action string, player 0's
+ * and player 1's PlayerAction JSON and getAction's nanoseconds; a 0 ends it. JSON is
+ * written as length-prefixed UTF-8.
+ */
+public class ReplayHarness {
+  private static final int MAGIC = 0x44425452;
+  private static final int VERSION = 2;
+  private static final int MISMATCHES_SHOWN = 10;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0)
+      throw new IllegalArgumentException("Usage: ReplayHarness record|replay name=value...");
+    Map<String, String> options = new HashMap<>();
+    for (int i = 1; i < args.length; i++) {
+      int split = args[i].indexOf('=');
+      if (split < 0)
+        throw new IllegalArgumentException("Expected name=value, got " + args[i]);
+      options.put(args[i].substring(0, split), args[i].substring(split + 1));
+    }
+    String trace = options.getOrDefault("trace", "dinklebot.trace");
+
+    if (args[0].equals("record")) {
+      record(options.get("map"), options.getOrDefault("opponent", "WorkerRush"),
+          Integer.parseInt(options.getOrDefault("side", "0")), Integer.parseInt(options.getOrDefault("cycles", "3000")), trace);
+    } else if (args[0].equals("replay")) {
+      System.exit(replay(trace) ? 0 : 1);
+    } else {
+      throw new IllegalArgumentException("Unknown mode " + args[0] + ", expected record or replay");
+    }
+  }
+
+  static void record(String map, String opponentName, int side, int maxCycles, String trace) throws Exception {
+    UnitTypeTable unitTypeTable = new UnitTypeTable();
+    GameState state = new GameState(PhysicalGameState.load(map, unitTypeTable), unitTypeTable);
+    DinkleBot bot = newBot(unitTypeTable);
+    AI opponent = TournamentRunner.OPPONENTS.get(opponentName).apply(unitTypeTable);
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(trace))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(side);
+      out.writeUTF(map);
+
+      int frames = 0;
+      boolean over = false;
+      while (!over && state.getTime() < maxCycles) {
+        String json = toJson(state);
+        long start = System.nanoTime();
+        PlayerAction ours = bot.getAction(side, state);
+        long nanos = System.nanoTime() - start;
+        List<String> actions = describe(ours);
+        PlayerAction theirs = opponent.getAction(1 - side, state);
+        PlayerAction first = side == 0 ? ours : theirs;
+        PlayerAction second = side == 0 ? theirs : ours;
+
+        out.writeBoolean(true);
+        out.writeInt(state.getTime());
+        writeString(out, json);
+        out.writeInt(actions.size());
+        for (String action : actions)
+          out.writeUTF(action);
+        writeString(out, toJson(first));
+        writeString(out, toJson(second));
+        out.writeLong(nanos);
+        frames++;
+
+        state.issueSafe(first);
+        state.issueSafe(second);
+        over = state.cycle();
+      }
+      out.writeBoolean(false);
+      System.out.println("Recorded " + frames + " frames to " + trace);
+    }
+  }
+
+  static boolean replay(String trace) throws Exception {
+    UnitTypeTable unitTypeTable = new UnitTypeTable();
+    DinkleBot bot = newBot(unitTypeTable);
+    List<Long> recordedNanos = new ArrayList<>();
+    List<Long> replayedNanos = new ArrayList<>();
+    int mismatches = 0;
+    int diverged = 0;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(trace))))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException(trace + " is not a version " + VERSION + " DinkleBot trace");
+      int player = in.readInt();
+      String map = in.readUTF();
+
+      GameState state = null;
+      while (readMarker(in)) {
+        int time = in.readInt();
+        String json = readString(in);
+        int count = in.readInt();
+        List<String> expected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+          expected.add(in.readUTF());
+        String first = readString(in);
+        String second = readString(in);
+        recordedNanos.add(in.readLong());
+
+        // The first frame loads the game, and after that it's played on
+        if (state == null) {
+          state = GameState.fromJSON(json, unitTypeTable);
+        } else if (!toJson(state).equals(json)) {
+          if (diverged < MISMATCHES_SHOWN)
+            System.out.println("Frame " + time + ": the replayed state differs from the recorded one, continuing from the recording");
+          diverged++;
+          state = GameState.fromJSON(json, unitTypeTable);
+        }
+        long start = System.nanoTime();
+        PlayerAction action = bot.getAction(player, state);
+        replayedNanos.add(System.nanoTime() - start);
+
+        List<String> actual = describe(action);
+        if (!actual.equals(expected)) {
+          if (mismatches < MISMATCHES_SHOWN)
+            System.out.println("Frame " + time + " differs\n  recorded " + expected + "\n  replayed " + actual);
+          mismatches++;
+        }
+
+        // The recorded actions, not the replayed ones, so the game stays the one that was recorded
+        state.issueSafe(PlayerAction.fromJSON(first, state, unitTypeTable));
+        state.issueSafe(PlayerAction.fromJSON(second, state, unitTypeTable));
+        state.cycle();
+      }
+      System.out.println(map + ", player " + player + ": " + recordedNanos.size() + " frames, " + mismatches + " differ, "
+          + diverged + " states diverged");
+    }
+
+    long[] recorded = sorted(recordedNanos);
+    long[] replayed = sorted(replayedNanos);
+    long[] deltas = new long[recorded.length];
+    for (int i = 0; i < deltas.length; i++)
+      deltas[i] = replayedNanos.get(i) - recordedNanos.get(i);
+    Arrays.sort(deltas);
+    System.out.println("getAction micros     p50      p95      p99      max");
+    System.out.println(row("recorded", recorded));
+    System.out.println(row("replayed", replayed));
+    System.out.println(row("delta", deltas));
+    return mismatches == 0 && diverged == 0;
+  }
+
+  private static DinkleBot newBot(UnitTypeTable unitTypeTable) {
+    DinkleBot bot = new DinkleBot(unitTypeTable);
+    bot.setTimeBudget(0);
+    return bot;
+  }
+
+  private static String toJson(GameState state) throws Exception {
+    StringWriter writer = new StringWriter();
+    state.toJSON(writer);
+    return writer.toString();
+  }
+
+  private static String toJson(PlayerAction action) throws Exception {
+    StringWriter writer = new StringWriter();
+    action.toJSON(writer);
+    return writer.toString();
+  }
+
+  // Length-prefixed UTF-8, since writeUTF stops at 64KB and a big map's JSON doesn't
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // Unit ID and action of every unit action, sorted so the order actions were issued in doesn't matter
+  private static List<String> describe(PlayerAction action) {
+    List<String> actions = new ArrayList<>();
+    for (Pair<Unit, UnitAction> unitAction : action.getActions())
+      actions.add(unitAction.m_a.getID() + " " + unitAction.m_b);
+    Collections.sort(actions);
+    return actions;
+  }
+
+  private static boolean readMarker(DataInputStream in) throws IOException {
+    try {
+      return in.readBoolean();
+    } catch (EOFException e) {
+      throw new IOException("Trace ends without its end marker", e);
+    }
+  }
+
+  private static long[] sorted(List<Long> values) {
+    long[] array = new long[values.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = values.get(i);
+    Arrays.sort(array);
+    return array;
+  }
+
+  private static String row(String label, long[] sorted) {
+    return String.format("%-16s %8d %8d %8d %8d", label, percentile(sorted, 0.50) / 1000, percentile(sorted, 0.95) / 1000,
+        percentile(sorted, 0.99) / 1000, percentile(sorted, 1.0) / 1000);
+  }
+
+  // Nearest-rank percentile, as in TournamentRunner
+  private static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0)
+      return 0;
+    return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+  }
+}
@@ -0,0 +1,175 @@
+package DinkleBot;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import ai.PassiveAI;
+import ai.RandomBiasedAI;
+import ai.abstraction.HeavyRush;
+import ai.abstraction.LightRush;
+import ai.abstraction.RangedRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+/*
+ * Plays headless games of DinkleBot against the standard microRTS bots, one game per core.
+ *
+ * Every map is played against every opponent, `games` times from each side. Each game gets
+ * its own DinkleBot clone, opponent and game state, so games share nothing but the unit
+ * type table. One CSV line is written per game as soon as it finishes:
+ *
+ *   map,opponent,side,game,result,cycles,p50Micros,p95Micros,p99Micros,maxMicros
+ *
+ * where result is win, loss, draw (time ran out) or error, and the percentiles are of
+ * DinkleBot's getAction time over the game's frames.
+ *
+ * Arguments are name=value pairs:
+ *   maps=a.xml,b.xml   maps to play (required)
+ *   opponents=...      comma separated, default all of WorkerRush, LightRush, HeavyRush,
+ *                      RangedRush, RandomBiasedAI, PassiveAI
+ *   games=10           games per map, opponent and side
+ *   cycles=5000        game length limit
+ *   threads=<cores>    games played at once
+ *   out=tournament.csv
+ */
+public class TournamentRunner {
+  static final Map<String, Function<UnitTypeTable, AI>> OPPONENTS = new LinkedHashMap<>();
+  static {
+    OPPONENTS.put("WorkerRush", WorkerRush::new);
+    OPPONENTS.put("LightRush", LightRush::new);
+    OPPONENTS.put("HeavyRush", HeavyRush::new);
+    OPPONENTS.put("RangedRush", RangedRush::new);
+    OPPONENTS.put("RandomBiasedAI", utt -> new RandomBiasedAI());
+    OPPONENTS.put("PassiveAI", utt -> new PassiveAI());
+  }
+
+  private final UnitTypeTable unitTypeTable = new UnitTypeTable();
+  private final DinkleBot template = new DinkleBot(unitTypeTable);
+  private final int maxCycles;
+  private final Writer out;
+  private int wins, losses, draws, errors;
+
+  private TournamentRunner(int maxCycles, Writer out) {
+    this.maxCycles = maxCycles;
+    this.out = out;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int split = arg.indexOf('=');
+      if (split < 0)
+        throw new IllegalArgumentException("Expected name=value, got " + arg);
+      options.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+    if (!options.containsKey("maps"))
+      throw new IllegalArgumentException("Usage: TournamentRunner maps=a.xml,b.xml [opponents=...] [games=10] [cycles=5000] [threads=n] [out=file]");
+
+    List<String> maps = Arrays.asList(options.get("maps").split(","));
+    List<String> opponents = Arrays.asList(options.getOrDefault("opponents", String.join(",", OPPONENTS.keySet())).split(","));
+    for (String opponent : opponents)
+      if (!OPPONENTS.containsKey(opponent))
+        throw new IllegalArgumentException("Unknown opponent " + opponent + ", expected one of " + OPPONENTS.keySet());
+    int games = Integer.parseInt(options.getOrDefault("games", "10"));
+    int maxCycles = Integer.parseInt(options.getOrDefault("cycles", "5000"));
+    int threads = Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+    try (Writer out = new FileWriter(options.getOrDefault("out", "tournament.csv"))) {
+      out.write("map,opponent,side,game,result,cycles,p50Micros,p95Micros,p99Micros,maxMicros\n");
+      TournamentRunner runner = new TournamentRunner(maxCycles, out);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      for (String map : maps)
+        for (String opponent : opponents)
+          for (int side = 0; side < 2; side++)
+            for (int game = 0; game < games; game++) {
+              int s = side, g = game;
+              pool.execute(() -> runner.play(map, opponent, s, g));
+            }
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+      System.out.println(runner.wins + " wins, " + runner.losses + " losses, " + runner.draws + " draws, " + runner.errors + " errors");
+    }
+  }
+
+  private void play(String map, String opponentName, int side, int game) {
+    long[] decisionNanos = new long[maxCycles];
+    int frames = 0;
+    String result;
+    int cycles = 0;
+    try {
+      GameState state = new GameState(PhysicalGameState.load(map, unitTypeTable), unitTypeTable);
+      int winner = playGame(template.clone(), OPPONENTS.get(opponentName).apply(unitTypeTable), state, side, maxCycles, decisionNanos);
+      cycles = state.getTime();
+      frames = cycles;
+      result = winner == side ? "win" : winner == 1 - side ? "loss" : "draw";
+    } catch (Exception e) {
+      System.err.println(map + " vs " + opponentName + " side " + side + " game " + game + ": " + e);
+      result = "error";
+    }
+
+    Arrays.sort(decisionNanos, 0, frames);
+    record(map + "," + opponentName + "," + side + "," + game + "," + result + "," + cycles + ","
+        + percentile(decisionNanos, frames, 0.50) / 1000 + "," + percentile(decisionNanos, frames, 0.95) / 1000 + ","
+        + percentile(decisionNanos, frames, 0.99) / 1000 + "," + percentile(decisionNanos, frames, 1.0) / 1000, result);
+  }
+
+  /*
+   * Plays the game out (or to maxCycles) and returns the winner, -1 for a draw. Our getAction
+   * time for each cycle goes into decisionNanos, if given.
+   */
+  static int playGame(AI bot, AI opponent, GameState state, int side, int maxCycles, long[] decisionNanos) throws Exception {
+    boolean over = false;
+    while (!over && state.getTime() < maxCycles) {
+      long start = System.nanoTime();
+      PlayerAction ours = bot.getAction(side, state);
+      if (decisionNanos != null)
+        decisionNanos[state.getTime()] = System.nanoTime() - start;
+      PlayerAction theirs = opponent.getAction(1 - side, state);
+      // Player 0's actions go in first, whichever side we are on
+      state.issueSafe(side == 0 ? ours : theirs);
+      state.issueSafe(side == 0 ? theirs : ours);
+      over = state.cycle();
+    }
+    int winner = state.winner();
+    bot.gameOver(winner);
+    opponent.gameOver(winner);
+    return winner;
+  }
+
+  private synchronized void record(String line, String result) {
+    switch (result) {
+      case "win": wins++; break;
+      case "loss": losses++; break;
+      case "draw": draws++; break;
+      default: errors++;
+    }
+    try {
+      out.write(line);
+      out.write('\n');
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Nearest-rank percentile of the first `count` sorted values
+  private static long percentile(long[] sorted, int count, double p) {
+    if (count == 0)
+      return 0;
+    return sorted[Math.max(0, (int) Math.ceil(p * count) - 1)];
+  }
+}
@@ -0,0 +1,119 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import ai.PassiveAI;
+import ai.core.AI;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/*
+ * What DinkleBot does on the benchmark fixtures, frame by frame, so changes that are meant
+ * to leave its play alone (incremental bookkeeping, caches, metrics, ...) are
+ * checked against a recorded log instead of taken on trust.
+ *
+ * Each fixture is played for CYCLES cycles against PassiveAI on one live GameState, so the
+ * tracker, intents and abstract actions carry over from frame to frame as in a real game.
+ * A frame is logged as its size, time, action count and a hash of its sorted actions. Units
+ * are numbered from the fixture's first unit, since microRTS hands out IDs from a counter
+ * shared by every game in the JVM.
+ *
+ * The log is compared against LOG, and a missing LOG is a failure. After a change that is
+ * meant to alter play, run with -Ddinklebot.recordActions=true to write the new log instead
+ * (the comparison is skipped) and commit it with that change.
+ */
+class ActionLogTest {
+  private static final int[] SIZES = {16, 32, 64};
+  private static final int CYCLES = 200;
+  private static final Path LOG = Paths.get("src/test/resources/DinkleBot/fixture-actions.log");
+
+  @Test
+  void matchesRecordedLog() throws Exception {
+    List<String> log = play(bot -> {});
+    if (Boolean.getBoolean("dinklebot.recordActions")) {
+      Files.createDirectories(LOG.getParent());
+      Files.write(LOG, log, StandardCharsets.UTF_8);
+      Assumptions.assumeTrue(false, "Recorded " + log.size() + " frames to " + LOG.toAbsolutePath());
+    }
+    assertTrue(Files.exists(LOG), LOG.toAbsolutePath() + " is missing; record it with -Ddinklebot.recordActions=true");
+    List<String> recorded = Files.readAllLines(LOG, StandardCharsets.UTF_8);
+    for (int i = 0; i < Math.min(recorded.size(), log.size()); i++)
+      assertEquals(recorded.get(i), log.get(i), "frame " + i + " (size time actions hash)");
+    assertEquals(recorded.size(), log.size(), "frames logged");
+  }
+
+  @Test
+  void sameGameSameLog() throws Exception {
+    assertIterableEquals(play(bot -> {}), play(bot -> {}));
+  }
+
+  @Test
+  void metricsDontChangePlay() throws Exception {
+    assertIterableEquals(play(bot -> {}), play(bot -> bot.enableMetrics(CYCLES)));
+  }
+
+  @Test
+  void parallelMatchesSerial() throws Exception {
+    // A threshold of one sends every pass with a unit to plan through the fork-join pool, and
+    // the melee has most units picking among enemies in reach
+    Consumer<DinkleBot> parallel = bot -> bot.setParallelThreshold(1);
+    assertIterableEquals(play(bot -> {}), play(parallel));
+    assertIterableEquals(play(BenchmarkFixtures::melee, bot -> {}), play(BenchmarkFixtures::melee, parallel));
+  }
+
+  static List<String> play(Consumer<DinkleBot> configure) throws Exception {
+    return play(BenchmarkFixtures::game, configure);
+  }
+
+  static List<String> play(BiFunction<UnitTypeTable, Integer, GameState> fixture, Consumer<DinkleBot> configure) throws Exception {
+    List<String> log = new ArrayList<>();
+    for (int size : SIZES) {
+      UnitTypeTable unitTypeTable = new UnitTypeTable();
+      GameState state = fixture.apply(unitTypeTable, size);
+      DinkleBot bot = new DinkleBot(unitTypeTable);
+      // No clock, so the log can't depend on machine speed
+      bot.setTimeBudget(0);
+      bot.setUsePresets(false);
+      configure.accept(bot);
+      AI opponent = new PassiveAI(unitTypeTable);
+      long firstId = state.getPhysicalGameState().getUnits().get(0).getID();
+      for (int cycle = 0; cycle < CYCLES; cycle++) {
+        PlayerAction ours = bot.getAction(0, state);
+        log.add(size + " " + state.getTime() + " " + describe(ours, firstId));
+        state.issueSafe(ours);
+        state.issueSafe(opponent.getAction(1, state));
+        if (state.cycle())
+          break;
+      }
+      bot.gameOver(state.winner());
+    }
+    return log;
+  }
+
+  private static String describe(PlayerAction action, long firstId) {
+    List<String> actions = new ArrayList<>();
+    for (Pair<Unit, UnitAction> unitAction : action.getActions())
+      actions.add((unitAction.m_a.getID() - firstId) + " " + unitAction.m_b);
+    Collections.sort(actions);
+    return actions.size() + " " + Integer.toHexString(String.join(";", actions).hashCode());
+  }
+}
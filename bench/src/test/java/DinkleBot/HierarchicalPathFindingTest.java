@@ -0,0 +1,112 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.abstraction.pathfinding.AStarPathFinding;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/*
+ * Walks on the benchmark fixtures with HierarchicalPathFinding, against the shortest walk a
+ * breadth-first search over the whole board finds. Every light of player 0 walks to a cell
+ * next to the enemy base while everything else stands still, so the search's answer is the
+ * best any path can do.
+ *
+ * Routes go through the middle of each cluster border they cross, so they aren't always
+ * the shortest. No walk may be longer by more than a cluster's width (MAX_DETOUR), and all
+ * of a board's walks together by more than a tenth.
+ */
+class HierarchicalPathFindingTest {
+  private static final int MAX_DETOUR = 8;
+
+  @Test
+  void walksStayCloseToShortest() throws Exception {
+    for (int size : new int[] {32, 64}) {
+      UnitTypeTable unitTypeTable = new UnitTypeTable();
+      GameState state = BenchmarkFixtures.game(unitTypeTable, size);
+      PhysicalGameState board = state.getPhysicalGameState();
+      Unit enemyBase = null;
+      for (Unit unit : board.getUnits())
+        if (unit.getPlayer() == 1 && unit.getType().name.equals("Base"))
+          enemyBase = unit;
+      int goal = enemyBase.getX() + enemyBase.getY() * size;
+      int walked = 0, shortestTotal = 0;
+
+      for (Unit unit : board.getUnits()) {
+        if (unit.getPlayer() != 0 || !unit.getType().name.equals("Light"))
+          continue;
+        int startX = unit.getX(), startY = unit.getY();
+        int shortest = shortestWalk(board, unit, goal);
+        if (shortest < 0)
+          continue;
+        HierarchicalPathFinding pathFinding = new HierarchicalPathFinding(new AStarPathFinding());
+        int steps = 0;
+        while (!adjacent(unit, goal, size)) {
+          UnitAction action = pathFinding.findPathToAdjacentPosition(unit, goal, state, null);
+          assertNotNull(action, size + "x" + size + ": no step from " + unit.getX() + "," + unit.getY());
+          unit.setX(unit.getX() + UnitAction.DIRECTION_OFFX[action.getDirection()]);
+          unit.setY(unit.getY() + UnitAction.DIRECTION_OFFY[action.getDirection()]);
+          steps++;
+          state.cycle();
+        }
+        assertTrue(steps <= shortest + MAX_DETOUR, size + "x" + size + ": light from " + startX + "," + startY
+            + " took " + steps + " moves, the shortest walk is " + shortest);
+        walked += steps;
+        shortestTotal += shortest;
+        unit.setX(startX);
+        unit.setY(startY);
+        state.cycle();
+      }
+      assertTrue(walked * 10 <= shortestTotal * 11, size + "x" + size + ": " + walked + " moves, the shortest walks take " + shortestTotal);
+    }
+  }
+
+  private static boolean adjacent(Unit unit, int goal, int width) {
+    return Math.abs(unit.getX() - goal % width) + Math.abs(unit.getY() - goal / width) == 1;
+  }
+
+  // Moves to a cell next to the goal, around walls and every other unit; -1 if there is none
+  private static int shortestWalk(PhysicalGameState board, Unit walker, int goal) {
+    int width = board.getWidth(), height = board.getHeight();
+    boolean[] blocked = new boolean[width * height];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        blocked[x + y * width] = board.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL;
+    List<Unit> units = board.getUnits();
+    for (Unit unit : units)
+      if (unit != walker)
+        blocked[unit.getX() + unit.getY() * width] = true;
+
+    int[] distance = new int[width * height];
+    Arrays.fill(distance, -1);
+    int[] queue = new int[width * height];
+    int head = 0, tail = 0;
+    int start = walker.getX() + walker.getY() * width;
+    distance[start] = 0;
+    queue[tail++] = start;
+    while (head < tail) {
+      int cell = queue[head++];
+      int x = cell % width, y = cell / width;
+      if (Math.abs(x - goal % width) + Math.abs(y - goal / width) == 1)
+        return distance[cell];
+      for (int direction = 0; direction < 4; direction++) {
+        int nx = x + UnitAction.DIRECTION_OFFX[direction];
+        int ny = y + UnitAction.DIRECTION_OFFY[direction];
+        if (nx < 0 || ny < 0 || nx >= width || ny >= height || blocked[nx + ny * width] || distance[nx + ny * width] >= 0)
+          continue;
+        distance[nx + ny * width] = distance[cell] + 1;
+        queue[tail++] = nx + ny * width;
+      }
+    }
+    return -1;
+  }
+}
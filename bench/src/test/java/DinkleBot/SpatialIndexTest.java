@@ -0,0 +1,69 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/*
+ * SpatialIndex against the linear scans it replaced in DinkleBot: Stream.min for the closest
+ * unit (the first of equally close ones in list order) and filter for the units in range
+ * (in list order). Units are packed onto small boards, several to a cell, so ties are the
+ * common case, and the list is churned between rebuilds as it is from frame to frame.
+ */
+class SpatialIndexTest {
+  @Test
+  void matchesLinearScansUnderChurn() {
+    UnitType light = new UnitTypeTable().getUnitType("Light");
+    Random random = new Random(3);
+    for (int[] board : new int[][] {{1, 1}, {5, 3}, {8, 8}, {13, 29}, {64, 64}}) {
+      int width = board[0], height = board[1];
+      List<Unit> units = new ArrayList<>();
+      SpatialIndex index = new SpatialIndex();
+      for (int round = 0; round < 200; round++) {
+        // Some units come, some go and some move
+        for (int i = random.nextInt(8); i > 0; i--)
+          units.add(random.nextInt(units.size() + 1), new Unit(0, light, random.nextInt(width), random.nextInt(height)));
+        for (int i = random.nextInt(4); i > 0 && !units.isEmpty(); i--)
+          units.remove(random.nextInt(units.size()));
+        for (Unit unit : units) {
+          if (random.nextInt(4) == 0) {
+            unit.setX(random.nextInt(width));
+            unit.setY(random.nextInt(height));
+          }
+        }
+        index.build(units, width, height);
+
+        for (int query = 0; query < 20; query++) {
+          // References may stand off the board's grid, as units of a copied state can
+          Unit reference = new Unit(1, light, random.nextInt(width + 4) - 2, random.nextInt(height + 4) - 2);
+          int distance = random.nextInt(Math.max(width, height) + 2) - 1;
+          String where = width + "x" + height + " round " + round + " from " + reference.getX() + "," + reference.getY();
+
+          Unit closest = units.stream().min(Comparator.comparingInt(u -> distance(u, reference))).orElse(null);
+          assertSame(closest, index.findClosest(reference), "closest, " + where);
+          List<Unit> within = units.stream().filter(u -> distance(u, reference) <= distance).collect(Collectors.toList());
+          List<Unit> found = index.findUnitsWithin(reference, distance);
+          assertEquals(within.size(), found.size(), "within " + distance + ", " + where);
+          for (int i = 0; i < within.size(); i++)
+            assertSame(within.get(i), found.get(i), "within " + distance + " #" + i + ", " + where);
+          assertEquals(within.size(), index.countUnitsWithin(reference.getX(), reference.getY(), distance), "count " + distance + ", " + where);
+        }
+      }
+    }
+  }
+
+  private static int distance(Unit a, Unit b) {
+    return Math.abs(a.getX() - b.getX()) + Math.abs(a.getY() - b.getY());
+  }
+}
@@ -0,0 +1,131 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.Test;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/*
+ * StrategyPlanner against the inline computation it stands in for: every plan it publishes
+ * from a frame has the production order of an OpponentModel that saw the same frames, and
+ * the resources near each of our bases as DinkleBot counts them. Also checks that the
+ * thread is gone once the planner is stopped, whether directly or by a bot's gameOver.
+ */
+class StrategyPlannerTest {
+  private static final String THREAD = "DinkleBot planner";
+  private static final long PUBLISH_WAIT_MILLIS = 5000;
+  private static final int FRAMES = 20;
+
+  @Test
+  void publishesTheInlinePlan() throws Exception {
+    for (BiFunction<UnitTypeTable, Integer, GameState> fixture : List.<BiFunction<UnitTypeTable, Integer, GameState>>of(
+        BenchmarkFixtures::game, BenchmarkFixtures::melee)) {
+      for (int size : new int[] {16, 32, 64}) {
+        UnitTypeTable unitTypeTable = new UnitTypeTable();
+        GameState state = fixture.apply(unitTypeTable, size);
+        PhysicalGameState board = state.getPhysicalGameState();
+        MapAnalysis analysis = new MapAnalysis();
+        analysis.analyse(board);
+        UnitType[] types = new UnitType[StrategyPlanner.KINDS];
+        String[] names = {"Base", "Barracks", "Worker", "Light", "Heavy", "Ranged"};
+        for (int k = 0; k < names.length; k++)
+          types[k] = unitTypeTable.getUnitType(names[k]);
+        int radius = analysis.diagonal() / DinkleBot.HARVEST_RADIUS_DIVISOR;
+
+        StrategyPlanner planner = new StrategyPlanner();
+        OpponentModel inline = new OpponentModel();
+        assertEquals(-1, planner.latest().time, "no plan before the first hand-over");
+        try {
+          for (int frame = 0; frame < FRAMES; frame++) {
+            String where = size + "x" + size + " frame " + frame;
+            // The plan is published a moment before the planner takes input again
+            long deadline = System.currentTimeMillis() + PUBLISH_WAIT_MILLIS;
+            while (!planner.submit(state.getTime(), 0, board.getUnits(), types, analysis.regions(), size, radius)) {
+              assertTrue(System.currentTimeMillis() < deadline, "planner still busy, " + where);
+              Thread.sleep(1);
+            }
+            observe(inline, state.getTime(), board.getUnits(), types);
+            StrategyPlanner.Strategy strategy = awaitPlan(planner, state.getTime(), where);
+
+            assertArrayEquals(inline.plan(), strategy.production, "production, " + where);
+            int bases = 0;
+            for (Unit unit : board.getUnits()) {
+              if (unit.getPlayer() != 0 || unit.getType() != types[StrategyPlanner.BASE])
+                continue;
+              bases++;
+              assertEquals(resourcesNear(unit, board.getUnits(), analysis, radius), strategy.resourcesNear(unit.getID()),
+                  "resources near base " + unit.getX() + "," + unit.getY() + ", " + where);
+            }
+            assertEquals(bases, strategy.bases, "bases, " + where);
+            state.cycle();
+          }
+        } finally {
+          // A failed check mustn't leave the thread behind for the next test
+          planner.stop();
+        }
+        assertFalse(planner.submit(state.getTime(), 0, board.getUnits(), types, analysis.regions(), size, radius),
+            "a stopped planner takes no input");
+        assertFalse(plannerRunning(), "planner thread still running after stop");
+      }
+    }
+  }
+
+  @Test
+  void gameOverEndsThePlanner() throws Exception {
+    ActionLogTest.play(bot -> bot.setBackgroundPlanning(true));
+    assertFalse(plannerRunning(), "planner thread still running after gameOver");
+  }
+
+  private static StrategyPlanner.Strategy awaitPlan(StrategyPlanner planner, int time, String where) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + PUBLISH_WAIT_MILLIS;
+    StrategyPlanner.Strategy strategy = planner.latest();
+    while (strategy.time != time) {
+      assertTrue(System.currentTimeMillis() < deadline, "no plan published, " + where);
+      Thread.sleep(1);
+      strategy = planner.latest();
+    }
+    return strategy;
+  }
+
+  private static void observe(OpponentModel model, int time, List<Unit> units, UnitType[] types) {
+    int[] counts = new int[StrategyPlanner.KINDS];
+    for (Unit unit : units)
+      if (unit.getPlayer() == 1)
+        for (int k = 0; k < types.length; k++)
+          if (unit.getType() == types[k])
+            counts[k]++;
+    model.observe(time, counts[StrategyPlanner.WORKER], counts[StrategyPlanner.LIGHT], counts[StrategyPlanner.HEAVY],
+        counts[StrategyPlanner.RANGED], counts[StrategyPlanner.BARRACKS]);
+  }
+
+  private static int resourcesNear(Unit base, List<Unit> units, MapAnalysis analysis, int radius) {
+    int region = analysis.region(base);
+    int count = 0;
+    for (Unit unit : units) {
+      if (unit.getPlayer() >= 0)
+        continue;
+      if (region < 0 ? Math.abs(unit.getX() - base.getX()) + Math.abs(unit.getY() - base.getY()) <= radius
+          : analysis.region(unit) == region)
+        count++;
+    }
+    return count;
+  }
+
+  private static boolean plannerRunning() {
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+      if (thread.getName().equals(THREAD) && thread.isAlive())
+        return true;
+    return false;
+  }
+}
@@ -0,0 +1,66 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * UnitIdMap against java.util.HashMap, with the same collision chains as UnitIdSetTest.
+ */
+class UnitIdMapTest {
+  @Test
+  void putGetRemove() {
+    UnitIdMap map = new UnitIdMap();
+    assertEquals(-1, map.get(3));
+    map.put(3, 30);
+    map.put(3, 31);
+    assertEquals(31, map.get(3));
+    assertEquals(1, map.size());
+    assertEquals(31, map.remove(3));
+    assertEquals(-1, map.remove(3));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  void removalKeepsEveryChainReachable() {
+    for (int home : new int[] {6, 15}) {
+      long[] ids = UnitIdSetTest.chain(home);
+      for (int skip = 0; skip < ids.length; skip++) {
+        UnitIdMap map = new UnitIdMap(1);
+        for (int i = 0; i < ids.length; i++)
+          map.put(ids[i], i);
+        assertEquals(skip, map.remove(ids[skip]));
+        for (int i = 0; i < ids.length; i++)
+          assertEquals(i == skip ? -1 : i, map.get(ids[i]), "id " + ids[i] + " after removing " + ids[skip]);
+      }
+    }
+  }
+
+  @Test
+  void matchesHashMapUnderChurn() {
+    Random random = new Random(2);
+    for (int bound : new int[] {12, 40, 1000}) {
+      UnitIdMap map = new UnitIdMap();
+      Map<Long, Integer> expected = new HashMap<>();
+      for (int step = 0; step < 200000; step++) {
+        long id = random.nextInt(bound);
+        if (random.nextInt(3) > 0) {
+          int value = random.nextInt(1000);
+          map.put(id, value);
+          expected.put(id, value);
+        } else {
+          assertEquals(expected.getOrDefault(id, -1).intValue(), map.remove(id), "remove " + id);
+          expected.remove(id);
+        }
+        assertEquals(expected.size(), map.size());
+        if (step % 97 == 0)
+          for (long probe = 0; probe < bound && probe < 64; probe++)
+            assertEquals(expected.getOrDefault(probe, -1).intValue(), map.get(probe), "get " + probe + " at step " + step);
+      }
+    }
+  }
+}
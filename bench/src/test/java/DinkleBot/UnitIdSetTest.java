@@ -0,0 +1,83 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * UnitIdSet against java.util.HashSet. The set is kept small and dense so probe chains are
+ * long and wrap around the end of the table, which is where backward-shift deletion can
+ * go wrong.
+ */
+class UnitIdSetTest {
+  @Test
+  void addContainsRemove() {
+    UnitIdSet set = new UnitIdSet();
+    assertTrue(set.add(7));
+    assertFalse(set.add(7));
+    assertTrue(set.contains(7));
+    assertFalse(set.contains(8));
+    assertTrue(set.remove(7));
+    assertFalse(set.remove(7));
+    assertTrue(set.isEmpty());
+  }
+
+  @Test
+  void removalKeepsEveryChainReachable() {
+    // A chain of IDs homed on one slot interleaved with IDs homed on the next, once in the
+    // middle of a 16-slot table and once wrapping around its end
+    for (int home : new int[] {6, 15}) {
+      long[] ids = chain(home);
+      for (int skip = 0; skip < ids.length; skip++) {
+        UnitIdSet set = new UnitIdSet(1);
+        for (long id : ids)
+          set.add(id);
+        assertTrue(set.remove(ids[skip]));
+        for (int i = 0; i < ids.length; i++)
+          assertEquals(i != skip, set.contains(ids[i]), "id " + ids[i] + " after removing " + ids[skip]);
+        assertEquals(ids.length - 1, set.size());
+      }
+    }
+  }
+
+  // Four IDs whose home slot in a 16-slot table is `home` and three homed on the slot after
+  static long[] chain(int home) {
+    long[] ids = new long[7];
+    int first = 0, second = 4;
+    for (long id = 0; first < 4 || second < 7; id++) {
+      int slot = UnitIdSet.hash(id) & 15;
+      if (slot == home && first < 4)
+        ids[first++] = id;
+      else if (slot == ((home + 1) & 15) && second < 7)
+        ids[second++] = id;
+    }
+    // Interleave them so the second chain is displaced by the first
+    return new long[] {ids[0], ids[4], ids[1], ids[5], ids[2], ids[6], ids[3]};
+  }
+
+  @Test
+  void matchesHashSetUnderChurn() {
+    Random random = new Random(1);
+    for (int bound : new int[] {12, 40, 1000}) {
+      UnitIdSet set = new UnitIdSet();
+      Set<Long> expected = new HashSet<>();
+      for (int step = 0; step < 200000; step++) {
+        long id = random.nextInt(bound);
+        if (random.nextBoolean())
+          assertEquals(expected.add(id), set.add(id), "add " + id);
+        else
+          assertEquals(expected.remove(id), set.remove(id), "remove " + id);
+        assertEquals(expected.size(), set.size());
+        if (step % 97 == 0)
+          for (long probe = 0; probe < bound && probe < 64; probe++)
+            assertEquals(expected.contains(probe), set.contains(probe), "contains " + probe + " at step " + step);
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package DinkleBot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/*
+ * Births, deaths and moves reported between frames, and the cases that have to fall back to
+ * a rebuild.
+ */
+class UnitTrackerTest {
+  private final UnitTypeTable unitTypeTable = new UnitTypeTable();
+  private final UnitTracker tracker = new UnitTracker();
+  private PhysicalGameState board;
+  private GameState game;
+  private Unit base, worker, light, resource;
+
+  @BeforeEach
+  void setUp() {
+    board = new PhysicalGameState(8, 8);
+    board.addPlayer(new Player(0, 5));
+    board.addPlayer(new Player(1, 5));
+    base = add(0, "Base", 1, 1);
+    worker = add(0, "Worker", 2, 1);
+    light = add(1, "Light", 6, 6);
+    resource = add(-1, "Resource", 0, 0);
+    game = new GameState(board, unitTypeTable);
+    tracker.update(game);
+  }
+
+  @Test
+  void firstFrameIsARebuildWithEveryUnitBorn() {
+    assertTrue(tracker.rebuilt());
+    assertIterableEquals(Arrays.asList(base, worker, light, resource), tracker.births());
+    assertTrue(tracker.deaths().isEmpty());
+  }
+
+  @Test
+  void unchangedFrameReportsNothing() {
+    tracker.update(game);
+    assertFalse(tracker.rebuilt());
+    assertTrue(tracker.births().isEmpty());
+    assertTrue(tracker.deaths().isEmpty());
+    assertTrue(tracker.moves().isEmpty());
+  }
+
+  @Test
+  void movesAreReported() {
+    worker.setX(3);
+    light.setY(5);
+    tracker.update(game);
+    assertFalse(tracker.rebuilt());
+    assertIterableEquals(Arrays.asList(worker, light), tracker.moves());
+    assertTrue(tracker.births().isEmpty());
+    assertTrue(tracker.deaths().isEmpty());
+  }
+
+  @Test
+  void deathsAreReportedWithThePreviousUnit() {
+    board.removeUnit(worker);
+    board.removeUnit(resource);
+    tracker.update(game);
+    assertFalse(tracker.rebuilt());
+    assertIterableEquals(Arrays.asList(worker, resource), tracker.deaths());
+    assertTrue(tracker.births().isEmpty());
+  }
+
+  @Test
+  void deathsBirthsAndMovesInOneFrame() {
+    board.removeUnit(base);
+    light.setX(5);
+    Unit trained = add(1, "Worker", 7, 7);
+    tracker.update(game);
+    assertFalse(tracker.rebuilt());
+    assertIterableEquals(Collections.singletonList(base), tracker.deaths());
+    assertIterableEquals(Collections.singletonList(trained), tracker.births());
+    assertIterableEquals(Collections.singletonList(light), tracker.moves());
+
+    // And the frame after is diffed against that one
+    board.removeUnit(trained);
+    tracker.update(game);
+    assertFalse(tracker.rebuilt());
+    assertIterableEquals(Collections.singletonList(trained), tracker.deaths());
+    assertTrue(tracker.moves().isEmpty());
+  }
+
+  @Test
+  void copiedStateIsARebuildWithoutDeaths() {
+    GameState copy = game.clone();
+    tracker.update(copy);
+    assertTrue(tracker.rebuilt());
+    assertIterableEquals(copy.getPhysicalGameState().getUnits(), tracker.births());
+    assertTrue(tracker.deaths().isEmpty());
+
+    // Units missing from the copy are still reported dead
+    GameState smaller = game.clone();
+    smaller.getPhysicalGameState().removeUnit(smaller.getPhysicalGameState().getUnits().get(1));
+    tracker.update(smaller);
+    assertTrue(tracker.rebuilt());
+    List<Unit> deaths = tracker.deaths();
+    assertEquals(1, deaths.size());
+    assertEquals(worker.getID(), deaths.get(0).getID());
+  }
+
+  @Test
+  void newbornAheadOfSurvivorsIsARebuild() {
+    Unit trained = new Unit(0, unitTypeTable.getUnitType("Worker"), 3, 3);
+    board.getUnits().add(0, trained);
+    tracker.update(game);
+    assertTrue(tracker.rebuilt());
+    assertEquals(5, tracker.births().size());
+  }
+
+  @Test
+  void resizedBoardIsARebuild() {
+    PhysicalGameState bigger = new PhysicalGameState(16, 16);
+    for (Unit unit : board.getUnits())
+      bigger.addUnit(unit);
+    tracker.update(new GameState(bigger, unitTypeTable));
+    assertTrue(tracker.rebuilt());
+  }
+
+  @Test
+  void resetForcesARebuild() {
+    tracker.reset();
+    tracker.update(game);
+    assertTrue(tracker.rebuilt());
+  }
+
+  private Unit add(int player, String type, int x, int y) {
+    Unit unit = new Unit(player, unitTypeTable.getUnitType(type), x, y, type.equals("Resource") ? 10 : 0);
+    board.addUnit(unit);
+    return unit;
+  }
+}